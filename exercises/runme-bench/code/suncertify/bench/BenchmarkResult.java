@@ -0,0 +1,116 @@
+package suncertify.bench;
+
+import java.util.*;
+
+/**
+ * The outcome of one benchmark run: how long the database took to open and, per operation,
+ * the throughput and the latency percentiles measured over all threads.
+ */
+class BenchmarkResult {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final String storageMode;
+    private final int threads;
+    private final int records;
+    private final Map<Operation, Integer> mix;
+    private final long loadNanos;
+    private final long durationNanos;
+    private final Map<Operation, LatencyHistogram> latencies;
+    private final Map<Operation, Long> errors;
+
+    BenchmarkResult(String storageMode, int threads, int records, Map<Operation, Integer> mix, long loadNanos,
+            long durationNanos, Map<Operation, LatencyHistogram> latencies, Map<Operation, Long> errors) {
+        this.storageMode = storageMode;
+        this.threads = threads;
+        this.records = records;
+        this.mix = mix;
+        this.loadNanos = loadNanos;
+        this.durationNanos = durationNanos;
+        this.latencies = latencies;
+        this.errors = errors;
+    }
+
+    private double getThroughput(LatencyHistogram h) {
+        return h.getCount() * 1e9 / durationNanos;
+    }
+
+    private LatencyHistogram getTotal() {
+        LatencyHistogram total = new LatencyHistogram();
+        for (LatencyHistogram h : latencies.values()) {
+            total.add(h);
+        }
+        return total;
+    }
+
+    /**
+     * Prints one line per operation: throughput in operations per second and latencies in microseconds.
+     */
+    void print() {
+        System.out.println(String.format("%s, %d thread(s), %d record(s), loaded in %d ms",
+                storageMode, threads, records, loadNanos / 1000000));
+        System.out.println(String.format("  %-8s %12s %10s %10s %10s %10s %10s %8s",
+                "op", "ops/s", "mean us", "p50 us", "p99 us", "p99.9 us", "max us", "errors"));
+        for (Operation op : latencies.keySet()) {
+            printLine(op.getKey(), latencies.get(op), errors.get(op));
+        }
+        long totalErrors = 0;
+        for (long e : errors.values()) {
+            totalErrors += e;
+        }
+        printLine("total", getTotal(), totalErrors);
+    }
+
+    private void printLine(String name, LatencyHistogram h, long errorCount) {
+        System.out.println(String.format("  %-8s %12.0f %10.1f %10.1f %10.1f %10.1f %10.1f %8d", name,
+                getThroughput(h), h.getMean() / 1000, h.getPercentile(50) / 1000.0, h.getPercentile(99) / 1000.0,
+                h.getPercentile(99.9) / 1000.0, h.getMax() / 1000.0, errorCount));
+    }
+
+    /**
+     * Appends the result as a JSON object. Latencies are in nanoseconds.
+     */
+    void appendJson(StringBuilder sb, String indent) {
+        sb.append(indent).append("{\n");
+        sb.append(indent).append("  \"storageMode\": \"").append(storageMode).append("\",\n");
+        sb.append(indent).append("  \"threads\": ").append(threads).append(",\n");
+        sb.append(indent).append("  \"records\": ").append(records).append(",\n");
+        sb.append(indent).append("  \"mix\": {");
+        String separator = "";
+        for (Map.Entry<Operation, Integer> e : mix.entrySet()) {
+            sb.append(separator).append('"').append(e.getKey().getKey()).append("\": ").append(e.getValue());
+            separator = ", ";
+        }
+        sb.append("},\n");
+        sb.append(indent).append("  \"loadNanos\": ").append(loadNanos).append(",\n");
+        sb.append(indent).append("  \"durationNanos\": ").append(durationNanos).append(",\n");
+        sb.append(indent).append("  \"operations\": {\n");
+        separator = "";
+        for (Operation op : latencies.keySet()) {
+            sb.append(separator);
+            appendJson(sb, indent + "    ", op.getKey(), latencies.get(op), errors.get(op));
+            separator = ",\n";
+        }
+        sb.append("\n").append(indent).append("  },\n");
+        long totalErrors = 0;
+        for (long e : errors.values()) {
+            totalErrors += e;
+        }
+        appendJson(sb, indent + "  ", "total", getTotal(), totalErrors);
+        sb.append("\n").append(indent).append("}");
+    }
+
+    private void appendJson(StringBuilder sb, String indent, String name, LatencyHistogram h, long errorCount) {
+        sb.append(indent).append('"').append(name).append("\": {");
+        sb.append("\"count\": ").append(h.getCount());
+        sb.append(", \"errors\": ").append(errorCount);
+        sb.append(", \"throughput\": ").append(String.format(Locale.ROOT, "%.1f", getThroughput(h)));
+        sb.append(", \"mean\": ").append(String.format(Locale.ROOT, "%.1f", h.getMean()));
+        for (double p : PERCENTILES) {
+            sb.append(", \"p").append(String.valueOf(p).replace(".0", "").replace('.', '_')).append("\": ");
+            sb.append(h.getPercentile(p));
+        }
+        sb.append(", \"max\": ").append(h.getMax());
+        sb.append("}");
+    }
+}
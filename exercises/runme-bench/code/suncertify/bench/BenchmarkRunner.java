@@ -0,0 +1,315 @@
+package suncertify.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import suncertify.db.*;
+import suncertify.db.SecurityException;
+
+/**
+ * Measures the throughput and latency of the database operations on synthetic database files.
+ *
+ * For each storage mode and thread count, a fresh file is generated and opened (the time this takes is
+ * the load time), then the threads run the operation mix for the warm-up time, whose measures are
+ * discarded, and for the measurement time. The results are printed and written to a JSON file.
+ *
+ * Arguments are name=value pairs, all optional:
+ *  records=100000                                  number of records in the generated file
+ *  threads=1,4                                     thread counts to run the mix with
+ *  storage=HEAP,MEMORY_MAPPED                      storage modes to open the file with
+ *  mix=read:60,update:15,lock:5,find:10,create:5,delete:5   weights of the operations (also cursor)
+ *  warmup=3 duration=10                            times in seconds
+ *  dir=(temporary directory)                       where the files are generated
+ *  out=bench-results.json                          where the results are written
+ */
+public class BenchmarkRunner {
+
+    private static final long SEED = 42;
+
+    private enum Phase { WARMUP, MEASURE, STOP }
+
+    private final int records;
+    private final Map<Operation, Integer> mix;
+    private final long warmupMillis;
+    private final long durationMillis;
+    private final File dir;
+
+    private volatile Phase phase;
+
+    BenchmarkRunner(int records, Map<Operation, Integer> mix, long warmupMillis, long durationMillis, File dir) {
+        this.records = records;
+        this.mix = mix;
+        this.warmupMillis = warmupMillis;
+        this.durationMillis = durationMillis;
+        this.dir = dir;
+    }
+
+    /**
+     * Runs one thread of the mix, recording the latency of each operation in its own histograms.
+     */
+    private class Worker implements Runnable {
+        private final Data db;
+        private final RecordPool pool;
+        private final AtomicInteger serial;
+        private final Random random;
+        private final DatabaseFileGenerator values;
+        private final Operation[] operations;
+        private final int[] cumulativeWeights;
+        private final Map<Operation, LatencyHistogram> latencies = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+        private final Map<Operation, Long> errors = new EnumMap<Operation, Long>(Operation.class);
+
+        Worker(Data db, RecordPool pool, AtomicInteger serial, long seed) {
+            this.db = db;
+            this.pool = pool;
+            this.serial = serial;
+            this.random = new Random(seed);
+            this.values = new DatabaseFileGenerator(seed, 0.0);
+            this.operations = mix.keySet().toArray(new Operation[mix.size()]);
+            this.cumulativeWeights = new int[operations.length];
+            int total = 0;
+            for (int i = 0; i < operations.length; i++) {
+                total += mix.get(operations[i]);
+                cumulativeWeights[i] = total;
+                latencies.put(operations[i], new LatencyHistogram());
+                errors.put(operations[i], 0L);
+            }
+        }
+
+        private Operation nextOperation() {
+            int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            int i = 0;
+            while (r >= cumulativeWeights[i]) {
+                i++;
+            }
+            return operations[i];
+        }
+
+        @Override
+        public void run() {
+            Phase current;
+            while ((current = phase) != Phase.STOP) {
+                Operation op = nextOperation();
+                long start = System.nanoTime();
+                boolean ok = execute(op);
+                long latency = System.nanoTime() - start;
+                if (current == Phase.MEASURE && phase == Phase.MEASURE) {
+                    latencies.get(op).record(latency);
+                    if (!ok) {
+                        errors.put(op, errors.get(op) + 1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns criteria on the name or on the location, picked at random.
+         */
+        private String[] newCriteria() {
+            String[] criteria = new String[7];
+            if (random.nextBoolean()) {
+                criteria[0] = DatabaseFileGenerator.NAMES[random.nextInt(DatabaseFileGenerator.NAMES.length)];
+            } else {
+                criteria[1] = DatabaseFileGenerator.LOCATIONS[random.nextInt(DatabaseFileGenerator.LOCATIONS.length)];
+            }
+            return criteria;
+        }
+
+        /**
+         * Executes one operation on a record picked at random.
+         *
+         * @return False if the operation failed, e.g. because another thread deleted the record.
+         */
+        private boolean execute(Operation op) {
+            try {
+                switch (op) {
+                case READ:
+                    db.read(pool.pick(random));
+                    return true;
+                case UPDATE: {
+                    int recNo = pool.pick(random);
+                    long cookie = db.lock(recNo);
+                    try {
+                        db.update(recNo, values.newRecordValues(serial.getAndIncrement()), cookie);
+                    } finally {
+                        db.unlock(recNo, cookie);
+                    }
+                    return true;
+                }
+                case LOCK: {
+                    int recNo = pool.pick(random);
+                    db.unlock(recNo, db.lock(recNo));
+                    return true;
+                }
+                case FIND:
+                    db.find(newCriteria());
+                    return true;
+                case CURSOR: {
+                    FindCursor cursor = db.openCursor(newCriteria(), 1, null);
+                    if (cursor.hasNext()) {
+                        cursor.next();
+                    }
+                    return true;
+                }
+                case CREATE:
+                    pool.add(db.create(values.newRecordValues(serial.getAndIncrement())));
+                    return true;
+                case DELETE: {
+                    // Keep a few records, so that the other operations always find one
+                    if (pool.size() < 2) {
+                        return false;
+                    }
+                    int recNo = pool.take(random);
+                    long cookie = db.lock(recNo);
+                    try {
+                        db.delete(recNo, cookie);
+                    } finally {
+                        db.unlock(recNo, cookie);
+                    }
+                    return true;
+                }
+                default:
+                    return false;
+                }
+            } catch (RecordNotFoundException e) {
+                return false;
+            } catch (DuplicateKeyException e) {
+                return false;
+            } catch (SecurityException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Generates a database file, opens it with the given storage mode and runs the mix with the given number of threads.
+     */
+    BenchmarkResult run(Data.StorageMode storageMode, int threads) throws IOException, InterruptedException {
+        File file = new File(dir, "bench-" + storageMode.name().toLowerCase() + "-" + threads + ".db");
+        new DatabaseFileGenerator(SEED, 0.0).generate(file, records);
+
+        long loadStart = System.nanoTime();
+        Data db = new Data(file.getPath(), storageMode, new FlushSettings());
+        long loadNanos = System.nanoTime() - loadStart;
+        try {
+            RecordPool pool = new RecordPool(db.find(new String[7]));
+            AtomicInteger serial = new AtomicInteger(records);
+
+            phase = Phase.WARMUP;
+            Worker[] workers = new Worker[threads];
+            Thread[] workerThreads = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Worker(db, pool, serial, SEED + i);
+                workerThreads[i] = new Thread(workers[i], "Benchmark worker " + i);
+                workerThreads[i].start();
+            }
+            Thread.sleep(warmupMillis);
+            phase = Phase.MEASURE;
+            long start = System.nanoTime();
+            Thread.sleep(durationMillis);
+            phase = Phase.STOP;
+            long durationNanos = System.nanoTime() - start;
+            for (Thread t : workerThreads) {
+                t.join();
+            }
+
+            Map<Operation, LatencyHistogram> latencies = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+            Map<Operation, Long> errors = new EnumMap<Operation, Long>(Operation.class);
+            for (Operation op : mix.keySet()) {
+                LatencyHistogram h = new LatencyHistogram();
+                long errorCount = 0;
+                for (Worker w : workers) {
+                    h.add(w.latencies.get(op));
+                    errorCount += w.errors.get(op);
+                }
+                latencies.put(op, h);
+                errors.put(op, errorCount);
+            }
+            return new BenchmarkResult(storageMode.name(), threads, records, mix, loadNanos, durationNanos,
+                    latencies, errors);
+        } finally {
+            db.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Parses a mix like "read:60,update:20"; the operations are kept in the order of Operation.
+     */
+    static Map<Operation, Integer> parseMix(String s) {
+        Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+        for (String part : s.split(",")) {
+            String[] kv = part.split(":");
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight > 0) {
+                mix.put(Operation.fromKey(kv[0]), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("The mix has no operation.");
+        }
+        return mix;
+    }
+
+    /**
+     * Writes the results, with the Java version and the number of processors they were measured with.
+     */
+    static void writeJson(File out, List<BenchmarkResult> results) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        sb.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        sb.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        sb.append("  \"results\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            results.get(i).appendJson(sb, "    ");
+            sb.append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        sb.append("  ]\n}\n");
+        Writer w = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+        try {
+            w.write(sb.toString());
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * @param args name=value pairs, see the description of the class.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("records", "100000");
+        options.put("threads", "1,4");
+        options.put("storage", "HEAP,MEMORY_MAPPED");
+        options.put("mix", "read:60,update:15,lock:5,find:10,create:5,delete:5");
+        options.put("warmup", "3");
+        options.put("duration", "10");
+        options.put("dir", System.getProperty("java.io.tmpdir"));
+        options.put("out", "bench-results.json");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                System.out.println("Unknown argument " + arg + "; expected one of " + options.keySet());
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(Integer.parseInt(options.get("records")),
+                parseMix(options.get("mix")), Long.parseLong(options.get("warmup")) * 1000,
+                Long.parseLong(options.get("duration")) * 1000, new File(options.get("dir")));
+        List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+        for (String storage : options.get("storage").split(",")) {
+            for (String threads : options.get("threads").split(",")) {
+                BenchmarkResult result = runner.run(Data.StorageMode.valueOf(storage.trim().toUpperCase()),
+                        Integer.parseInt(threads.trim()));
+                result.print();
+                results.add(result);
+            }
+        }
+        File out = new File(options.get("out"));
+        writeJson(out, results);
+        System.out.println("Results written to " + out.getAbsolutePath());
+    }
+}
@@ -0,0 +1,104 @@
+package suncertify.bench;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Writes synthetic database files in the format of db-1x3.db: the same schema header
+ * followed by any number of records made of the deletion flag and the padded field values.
+ *
+ * The values are drawn from small vocabularies, so that searches on names and locations
+ * match a predictable share of the records. Each name ends with the serial number of the record,
+ * so that no two records have the same name and location. The same seed always gives the same file.
+ */
+public class DatabaseFileGenerator {
+
+    private static final int MAGIC_COOKIE = 259;
+
+    private static final String[] FIELD_NAMES = { "name", "location", "size", "smoking", "rate", "date", "owner" };
+    private static final int[] FIELD_LENGTHS = { 64, 64, 4, 1, 8, 10, 8 };
+
+    static final String[] NAMES = {
+        "Palace", "Castle", "Excelsior", "Bed & Breakfast & Business", "Grandview", "Dew Drop Inn",
+        "Elephant Inn", "Mini Hotel", "Splendide", "Pandemonium", "Grand", "Hotel Bravo" };
+    static final String[] LOCATIONS = {
+        "Smallville", "Whoville", "Atlantis", "Hobbiton", "Lendmarch", "Pleasantville", "Bali", "Xanadu" };
+
+    private final Random random;
+    private final double deletedRatio;
+
+    /**
+     * @param seed The seed of the values.
+     * @param deletedRatio The share of the records written as deleted, between 0 and 1.
+     */
+    public DatabaseFileGenerator(long seed, double deletedRatio) {
+        this.random = new Random(seed);
+        this.deletedRatio = deletedRatio;
+    }
+
+    /**
+     * Writes a database file with the given number of records, replacing the file if it exists.
+     */
+    public void generate(File file, int records) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            writeSchema(out);
+            for (int i = 0; i < records; i++) {
+                out.writeByte(random.nextDouble() < deletedRatio ? 0xFF : 0);
+                String[] values = newRecordValues(i);
+                for (int f = 0; f < values.length; f++) {
+                    writeValue(out, values[f], FIELD_LENGTHS[f]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns random values for a record, as they would be entered by a user.
+     *
+     * @param serial A number that is different for each record, appended to the name.
+     */
+    public String[] newRecordValues(int serial) {
+        return new String[] {
+            NAMES[random.nextInt(NAMES.length)] + " " + serial,
+            LOCATIONS[random.nextInt(LOCATIONS.length)],
+            String.valueOf(1 + random.nextInt(12)),
+            random.nextBoolean() ? "Y" : "N",
+            "$" + (50 + random.nextInt(250)) + ".00",
+            String.format("%04d/%02d/%02d", 2004 + random.nextInt(3), 1 + random.nextInt(12), 1 + random.nextInt(28)),
+            ""
+        };
+    }
+
+    private static void writeSchema(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC_COOKIE);
+        out.writeShort(FIELD_NAMES.length);
+        for (int f = 0; f < FIELD_NAMES.length; f++) {
+            out.writeByte(FIELD_NAMES[f].length());
+            out.writeBytes(FIELD_NAMES[f]);
+            out.writeByte(FIELD_LENGTHS[f]);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, String value, int length) throws IOException {
+        StringBuilder sb = new StringBuilder(value);
+        sb.setLength(Math.min(sb.length(), length));
+        while (sb.length() < length) {
+            sb.append(' ');
+        }
+        out.writeBytes(sb.toString());
+    }
+
+    /**
+     * @param args The path of the file to write and the number of records.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Please provide the path of the file and the number of records.");
+            return;
+        }
+        new DatabaseFileGenerator(42, 0.0).generate(new File(args[0]), Integer.parseInt(args[1]));
+    }
+}
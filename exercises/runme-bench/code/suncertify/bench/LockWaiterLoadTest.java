@@ -0,0 +1,212 @@
+package suncertify.bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+import suncertify.business.*;
+import suncertify.db.*;
+import suncertify.util.VirtualThreads;
+
+/**
+ * Measures how many clients can wait for a record lock at once, and what they cost.
+ *
+ * First, directly on Data: a record is locked, then waiter threads, platform or virtual, call lock()
+ * on it. Once they all wait, the heap used and the platform threads of the process are measured;
+ * then the record is unlocked and each waiter unlocks it as soon as it gets it, down the queue.
+ * If the threads cannot all be created, the number that could is reported.
+ *
+ * Then through SocketAccomodationServer, in each of its execution modes: a record is locked, booking
+ * calls for it are sent and wait on the server, and a search for other records is timed meanwhile.
+ * With a pool of workers, the waiting bookings take all the workers and the search waits behind them.
+ * Virtual threads are skipped on a Java runtime that has none.
+ *
+ * Arguments are name=value pairs, all optional:
+ *  waiters=1000,10000                              numbers of threads waiting for the lock on Data
+ *  threads=PLATFORM,VIRTUAL                        kinds of waiter threads
+ *  bookings=200                                    booking calls waiting on the server
+ *  port=11300                                      port of the server
+ *  dir=(temporary directory)                       where the file is generated
+ */
+public class LockWaiterLoadTest {
+
+    private static final long SEED = 42;
+    private static final int RECORDS = 1000;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int platformThreads() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    private static void awaitWaiting(Data db, int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (db.getLockStatistics().getWaitingThreads() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static ExecutorService newPlatformExecutor() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Waiter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    private static void runWaiters(final Data db, String threads, int waiters) throws Exception {
+        ExecutorService executor = threads.equals("VIRTUAL")
+            ? VirtualThreads.newVirtualThreadPerTaskExecutor() : newPlatformExecutor();
+        long heapBefore = usedHeap();
+        int threadsBefore = platformThreads();
+        long cookie = db.lock(0);
+        final CountDownLatch done = new CountDownLatch(waiters);
+        long start = System.nanoTime();
+        int started = 0;
+        try {
+            for (; started < waiters; started++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            db.unlock(0, db.lock(0));
+                        } catch (Exception e) {
+                            System.out.println("Waiter failed: " + e);
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+        } catch (OutOfMemoryError e) {
+            // No more native threads
+        } catch (RejectedExecutionException e) {
+            // No more native threads
+        }
+        awaitWaiting(db, started, 60000);
+        long startMillis = (System.nanoTime() - start) / 1000000;
+        // Garbage collected meanwhile may make the difference negative
+        long heap = Math.max(usedHeap() - heapBefore, 0);
+        int threadCount = platformThreads() - threadsBefore;
+        start = System.nanoTime();
+        db.unlock(0, cookie);
+        for (int i = started; i < waiters; i++) {
+            done.countDown();
+        }
+        done.await();
+        long drainMillis = (System.nanoTime() - start) / 1000000;
+        executor.shutdown();
+        System.out.println(String.format("%-8s %6d of %6d waiting after %6d ms, %8d KB heap, %6d platform threads,"
+            + " drained in %5d ms", threads, started, waiters, startMillis, heap / 1024, threadCount, drainMillis));
+    }
+
+    private static void runServer(final Data db, SocketAccomodationServer.ExecutionMode mode, int bookings,
+            int port) throws Exception {
+        SocketAccomodationServer server = SocketAccomodationServer.startServer(db, port, mode);
+        final RemoteAccomodationProvider services = new RemoteAccomodationProvider("localhost:" + port,
+            RemoteAccomodationProvider.Transport.SOCKET);
+        // The bookings block on the client too, each in a thread of its own
+        ExecutorService clients = newPlatformExecutor();
+        try {
+            long cookie = db.lock(0);
+            for (int i = 0; i < bookings; i++) {
+                final String customerId = String.valueOf(10000000 + i);
+                clients.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            services.bookAccomodation(0, customerId);
+                        } catch (AccomodationAlreadyBookedException e) {
+                            // All but the first one
+                        } catch (AccomodationServicesException e) {
+                            System.out.println("Booking failed: " + e.getMessage());
+                        }
+                    }
+                });
+            }
+            awaitWaiting(db, Math.min(bookings, 4), 10000);
+            Thread.sleep(200);
+            int waiting = db.getLockStatistics().getWaitingThreads();
+            Future<List<Accomodation>> search = clients.submit(new Callable<List<Accomodation>>() {
+                @Override
+                public List<Accomodation> call() throws Exception {
+                    return services.searchAccomodations(new AccomodationSearchCriteria(null, "Bali"));
+                }
+            });
+            long start = System.nanoTime();
+            String searchTime;
+            try {
+                search.get(2, TimeUnit.SECONDS);
+                searchTime = ((System.nanoTime() - start) / 1000) + " us";
+            } catch (TimeoutException e) {
+                searchTime = "blocked";
+            }
+            db.unlock(0, cookie);
+            search.get();
+            clients.shutdown();
+            clients.awaitTermination(60, TimeUnit.SECONDS);
+            System.out.println(String.format("%-15s %5d bookings sent, %5d waiting on the lock, search: %s",
+                mode, bookings, waiting, searchTime));
+        } finally {
+            services.close();
+            server.stopServer();
+        }
+    }
+
+    /**
+     * @param args name=value pairs, see the description of the class.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("waiters", "1000,10000");
+        options.put("threads", "PLATFORM,VIRTUAL");
+        options.put("bookings", "200");
+        options.put("port", "11300");
+        options.put("dir", System.getProperty("java.io.tmpdir"));
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                System.out.println("Unknown argument " + arg + "; expected one of " + options.keySet());
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int port = Integer.parseInt(options.get("port"));
+        if (!VirtualThreads.isAvailable()) {
+            System.out.println("Virtual threads are not available in this Java runtime; VIRTUAL is skipped.");
+        }
+
+        File file = new File(options.get("dir"), "waiters-" + RECORDS + ".db");
+        new DatabaseFileGenerator(SEED, 0.0).generate(file, RECORDS);
+        Data db = new Data(file.getPath(), Data.StorageMode.HEAP, new FlushSettings());
+        try {
+            for (String threads : options.get("threads").split(",")) {
+                if (threads.trim().equalsIgnoreCase("VIRTUAL") && !VirtualThreads.isAvailable()) {
+                    continue;
+                }
+                for (String waiters : options.get("waiters").split(",")) {
+                    runWaiters(db, threads.trim().toUpperCase(), Integer.parseInt(waiters.trim()));
+                }
+            }
+            for (SocketAccomodationServer.ExecutionMode mode : SocketAccomodationServer.ExecutionMode.values()) {
+                if (mode == SocketAccomodationServer.ExecutionMode.VIRTUAL_THREADS && !VirtualThreads.isAvailable()) {
+                    continue;
+                }
+                runServer(db, mode, Integer.parseInt(options.get("bookings")), port++);
+            }
+        } finally {
+            db.close();
+            file.delete();
+        }
+    }
+}
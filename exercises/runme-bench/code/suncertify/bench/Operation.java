@@ -0,0 +1,24 @@
+package suncertify.bench;
+
+/**
+ * The operations a benchmark mix is made of. Each one is a complete client action:
+ * updating and deleting include locking and unlocking the record, and a cursor is opened
+ * and read up to its first result.
+ */
+enum Operation {
+    READ,
+    UPDATE,
+    LOCK,
+    FIND,
+    CURSOR,
+    CREATE,
+    DELETE;
+
+    String getKey() {
+        return name().toLowerCase();
+    }
+
+    static Operation fromKey(String key) {
+        return valueOf(key.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,51 @@
+package suncertify.bench;
+
+import java.util.Random;
+
+/**
+ * The record numbers known to exist, from which the benchmark threads pick the records they work on.
+ * Created records are added and deleted records removed, so that the mix keeps working on live records.
+ */
+class RecordPool {
+
+    private int[] recordNumbers;
+    private int size;
+
+    RecordPool(int[] recordNumbers) {
+        this.recordNumbers = recordNumbers.clone();
+        this.size = recordNumbers.length;
+    }
+
+    /**
+     * Returns a record number picked at random, or -1 if there is none left.
+     */
+    synchronized int pick(Random random) {
+        return (size == 0) ? -1 : recordNumbers[random.nextInt(size)];
+    }
+
+    /**
+     * Removes a record number picked at random and returns it, or returns -1 if there is none left.
+     */
+    synchronized int take(Random random) {
+        if (size == 0) {
+            return -1;
+        }
+        int i = random.nextInt(size);
+        int recNo = recordNumbers[i];
+        recordNumbers[i] = recordNumbers[--size];
+        return recNo;
+    }
+
+    synchronized void add(int recNo) {
+        if (size == recordNumbers.length) {
+            int[] grown = new int[Math.max(16, size * 2)];
+            System.arraycopy(recordNumbers, 0, grown, 0, size);
+            recordNumbers = grown;
+        }
+        recordNumbers[size++] = recNo;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,140 @@
+package suncertify.bench;
+
+import java.io.*;
+import java.util.*;
+
+import suncertify.db.*;
+
+/**
+ * Compares the time find() takes with each search mode, and the time a cursor takes to return its
+ * first result, on a generated database file. Criteria that the indexes cannot help with (all null)
+ * are timed as well as selective ones; each operation is timed with every criteria in turn.
+ *
+ * There is one result per storage and search mode, and one for the cursor, which does not use the
+ * indexes whatever the search mode. The results are printed and written to a JSON file, like those
+ * of BenchmarkRunner, with one thread.
+ *
+ * Arguments are name=value pairs, all optional:
+ *  records=100000                                  number of records in the generated file
+ *  storage=HEAP,MEMORY_MAPPED                      storage modes to open the file with
+ *  iterations=100                                  times each criteria is searched for, after one warm-up
+ *  dir=(temporary directory)                       where the file is generated
+ *  out=search-results.json                         where the results are written
+ */
+public class SearchBenchmark {
+
+    private static final long SEED = 42;
+
+    private static final String[][] CRITERIA = {
+        { null, null, null, null, null, null, null },
+        { null, null, null, "Y", null, null, null },
+        { "Grand", null, null, null, null, null, null },
+        { "Palace", "Bali", null, null, null, null, null },
+    };
+
+    /**
+     * Generates a database file, opens it with the given storage mode and times the searches on it.
+     */
+    private static List<BenchmarkResult> run(Data.StorageMode storageMode, int records, int iterations, File dir)
+            throws IOException {
+        File file = new File(dir, "search-" + storageMode.name().toLowerCase() + ".db");
+        new DatabaseFileGenerator(SEED, 0.0).generate(file, records);
+
+        long loadStart = System.nanoTime();
+        Data db = new Data(file.getPath(), storageMode, new FlushSettings());
+        long loadNanos = System.nanoTime() - loadStart;
+        List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+        try {
+            for (SearchMode mode : SearchMode.values()) {
+                db.setSearchMode(mode);
+                // Warm up, also builds the indexes of a memory mapped database
+                for (String[] criteria : CRITERIA) {
+                    db.find(criteria);
+                }
+                LatencyHistogram latencies = new LatencyHistogram();
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    for (String[] criteria : CRITERIA) {
+                        long t = System.nanoTime();
+                        db.find(criteria);
+                        latencies.record(System.nanoTime() - t);
+                    }
+                }
+                results.add(newResult(storageMode + " " + mode, records, Operation.FIND, loadNanos,
+                        System.nanoTime() - start, latencies));
+            }
+
+            // A cursor only searches until it finds the first match
+            for (String[] criteria : CRITERIA) {
+                firstResult(db, criteria);
+            }
+            LatencyHistogram latencies = new LatencyHistogram();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (String[] criteria : CRITERIA) {
+                    long t = System.nanoTime();
+                    firstResult(db, criteria);
+                    latencies.record(System.nanoTime() - t);
+                }
+            }
+            results.add(newResult(storageMode.name(), records, Operation.CURSOR, loadNanos,
+                    System.nanoTime() - start, latencies));
+        } finally {
+            db.close();
+            file.delete();
+        }
+        return results;
+    }
+
+    private static void firstResult(Data db, String[] criteria) {
+        FindCursor cursor = db.openCursor(criteria, 1, null);
+        if (cursor.hasNext()) {
+            cursor.next();
+        }
+    }
+
+    private static BenchmarkResult newResult(String label, int records, Operation operation, long loadNanos,
+            long durationNanos, LatencyHistogram latencies) {
+        Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+        mix.put(operation, 1);
+        Map<Operation, LatencyHistogram> latenciesByOperation = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+        latenciesByOperation.put(operation, latencies);
+        Map<Operation, Long> errors = new EnumMap<Operation, Long>(Operation.class);
+        errors.put(operation, 0L);
+        return new BenchmarkResult(label, 1, records, mix, loadNanos, durationNanos, latenciesByOperation, errors);
+    }
+
+    /**
+     * @param args name=value pairs, see the description of the class.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("records", "100000");
+        options.put("storage", "HEAP,MEMORY_MAPPED");
+        options.put("iterations", "100");
+        options.put("dir", System.getProperty("java.io.tmpdir"));
+        options.put("out", "search-results.json");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                System.out.println("Unknown argument " + arg + "; expected one of " + options.keySet());
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        int records = Integer.parseInt(options.get("records"));
+        int iterations = Integer.parseInt(options.get("iterations"));
+        List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+        for (String storage : options.get("storage").split(",")) {
+            for (BenchmarkResult result : run(Data.StorageMode.valueOf(storage.trim().toUpperCase()), records,
+                    iterations, new File(options.get("dir")))) {
+                result.print();
+                results.add(result);
+            }
+        }
+        File out = new File(options.get("out"));
+        BenchmarkRunner.writeJson(out, results);
+        System.out.println("Results written to " + out.getAbsolutePath());
+    }
+}
@@ -0,0 +1,170 @@
+package suncertify.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import suncertify.business.*;
+import suncertify.db.*;
+
+/**
+ * Loads a server over the loopback interface: opens connections that stay idle, then runs
+ * caller threads that search and book as fast as they can, and reports the calls per second
+ * and the number of threads of the server.
+ *
+ * All the callers share one RemoteAccomodationProvider, so over sockets their calls are
+ * pipelined on a single connection. Over RMI the connections of one process to the same
+ * server are shared too, so the idle connections are only opened over sockets.
+ *
+ * Arguments are name=value pairs, all optional:
+ *  records=10000                                   number of records in the generated file
+ *  transport=RMI,SOCKET                            transports to run the load with
+ *  idle=1000                                       idle connections opened over sockets
+ *  callers=16                                      threads calling the server
+ *  duration=10                                     time in seconds
+ *  port=11200                                      port of the server
+ *  dir=(temporary directory)                       where the file is generated
+ */
+public class ServerLoadTest {
+
+    private static final long SEED = 42;
+
+    private static class Caller extends Thread {
+        private final AccomodationServices services;
+        private final int records;
+        private final AtomicLong calls;
+        private final AtomicLong failures;
+        private volatile boolean running = true;
+
+        Caller(AccomodationServices services, int records, AtomicLong calls, AtomicLong failures) {
+            this.services = services;
+            this.records = records;
+            this.calls = calls;
+            this.failures = failures;
+        }
+
+        @Override
+        public void run() {
+            Random random = new Random();
+            while (running) {
+                try {
+                    if (random.nextInt(10) == 0) {
+                        services.bookAccomodation(random.nextInt(records),
+                            String.valueOf(10000000 + random.nextInt(90000000)));
+                    } else {
+                        services.searchAccomodations(new AccomodationSearchCriteria(null,
+                            DatabaseFileGenerator.LOCATIONS[random.nextInt(DatabaseFileGenerator.LOCATIONS.length)]));
+                    }
+                } catch (AccomodationAlreadyBookedException e) {
+                    // Counts as a call
+                } catch (AccomodationServicesException e) {
+                    failures.incrementAndGet();
+                }
+                calls.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Counts the threads serving connections: those of the socket server, or those RMI
+     * starts for each connection it accepts.
+     */
+    private static int countServerThreads() {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("SocketAccomodationServer") || t.getName().startsWith("RMI TCP Connection")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void run(RemoteAccomodationProvider.Transport transport, DB db, int records, int idle,
+            int callerCount, long durationMillis, int port) throws Exception {
+        AccomodationServer rmiServer = null;
+        SocketAccomodationServer socketServer = null;
+        if (transport == RemoteAccomodationProvider.Transport.SOCKET) {
+            socketServer = SocketAccomodationServer.startServer(db, port);
+        } else {
+            rmiServer = AccomodationServer.startServer(db, port);
+        }
+        List<RemoteAccomodationProvider> idleConnections = new ArrayList<RemoteAccomodationProvider>();
+        try {
+            if (transport == RemoteAccomodationProvider.Transport.SOCKET) {
+                for (int i = 0; i < idle; i++) {
+                    idleConnections.add(new RemoteAccomodationProvider("localhost:" + port, transport));
+                }
+            }
+            RemoteAccomodationProvider services = new RemoteAccomodationProvider("localhost:" + port, transport);
+            AtomicLong calls = new AtomicLong();
+            AtomicLong failures = new AtomicLong();
+            List<Caller> callers = new ArrayList<Caller>();
+            for (int i = 0; i < callerCount; i++) {
+                Caller caller = new Caller(services, records, calls, failures);
+                caller.setDaemon(true);
+                callers.add(caller);
+                caller.start();
+            }
+            Thread.sleep(durationMillis);
+            int threads = countServerThreads();
+            for (Caller caller : callers) {
+                caller.running = false;
+            }
+            for (Caller caller : callers) {
+                caller.join();
+            }
+            services.close();
+            System.out.println(String.format("%-6s %5d idle %3d callers %9.0f calls/s %6d failures %5d server threads",
+                transport, idleConnections.size(), callerCount, calls.get() * 1000.0 / durationMillis,
+                failures.get(), threads));
+        } finally {
+            for (RemoteAccomodationProvider connection : idleConnections) {
+                connection.close();
+            }
+            if (socketServer != null) {
+                socketServer.stopServer();
+            }
+            if (rmiServer != null) {
+                rmiServer.stopServer();
+            }
+        }
+    }
+
+    /**
+     * @param args name=value pairs, see the description of the class.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("records", "10000");
+        options.put("transport", "RMI,SOCKET");
+        options.put("idle", "1000");
+        options.put("callers", "16");
+        options.put("duration", "10");
+        options.put("port", "11200");
+        options.put("dir", System.getProperty("java.io.tmpdir"));
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                System.out.println("Unknown argument " + arg + "; expected one of " + options.keySet());
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int records = Integer.parseInt(options.get("records"));
+        int port = Integer.parseInt(options.get("port"));
+
+        File file = new File(options.get("dir"), "load-" + records + ".db");
+        new DatabaseFileGenerator(SEED, 0.0).generate(file, records);
+        Data db = new Data(file.getPath(), Data.StorageMode.HEAP, new FlushSettings());
+        try {
+            for (String transport : options.get("transport").split(",")) {
+                run(RemoteAccomodationProvider.Transport.valueOf(transport.trim().toUpperCase()), db, records,
+                    Integer.parseInt(options.get("idle")), Integer.parseInt(options.get("callers")),
+                    Long.parseLong(options.get("duration")) * 1000, port++);
+            }
+        } finally {
+            db.close();
+            file.delete();
+        }
+    }
+}
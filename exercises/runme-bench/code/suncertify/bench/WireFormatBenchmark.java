@@ -0,0 +1,130 @@
+package suncertify.bench;
+
+import java.io.*;
+import java.util.*;
+
+import suncertify.business.*;
+import suncertify.db.*;
+
+/**
+ * Compares the size and the serialization cost of a search result in the forms it can travel
+ * to a remote client: the records as String[], accomodations with the default serialization,
+ * accomodations in their compact format one by one, and the list returned by the services,
+ * which writes the whole result in the compact format.
+ *
+ * Arguments are name=value pairs, all optional:
+ *  records=10000                                   number of records in the generated file, all sent
+ *  rounds=200                                      serializations timed for each form, after as many for warm-up
+ *  dir=(temporary directory)                       where the file is generated
+ */
+public class WireFormatBenchmark {
+
+    private static final long SEED = 42;
+
+    /**
+     * An accomodation as it would be without its own format, for the default serialization.
+     */
+    private static class SerializableAccomodation implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int recordNumber;
+        private final String name;
+        private final String location;
+        private final int size;
+        private final boolean smoking;
+        private final String rate;
+        private final String date;
+        private final String owner;
+
+        SerializableAccomodation(Accomodation a) {
+            this.recordNumber = a.getRecordNumber();
+            this.name = a.getName();
+            this.location = a.getLocation();
+            this.size = a.getSize();
+            this.smoking = a.isSmoking();
+            this.rate = a.getRate();
+            this.date = a.getDate();
+            this.owner = a.getOwner();
+        }
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] b) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(b));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void measure(String form, Object result, int count, int rounds) throws Exception {
+        byte[] b = serialize(result);
+        for (int i = 0; i < rounds; i++) {
+            deserialize(serialize(result));
+        }
+        long writeNanos = 0;
+        long readNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            b = serialize(result);
+            long middle = System.nanoTime();
+            deserialize(b);
+            readNanos += System.nanoTime() - middle;
+            writeNanos += middle - start;
+        }
+        System.out.println(String.format("%-28s %10d bytes %7.1f bytes/record %9.0f ns/record written %9.0f ns/record read",
+                form, b.length, (double)b.length / count, (double)writeNanos / rounds / count,
+                (double)readNanos / rounds / count));
+    }
+
+    /**
+     * @param args name=value pairs, see the description of the class.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("records", "10000");
+        options.put("rounds", "200");
+        options.put("dir", System.getProperty("java.io.tmpdir"));
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                System.out.println("Unknown argument " + arg + "; expected one of " + options.keySet());
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int records = Integer.parseInt(options.get("records"));
+        int rounds = Integer.parseInt(options.get("rounds"));
+
+        File file = new File(options.get("dir"), "wire-" + records + ".db");
+        new DatabaseFileGenerator(SEED, 0.0).generate(file, records);
+        Data db = new Data(file.getPath(), Data.StorageMode.HEAP, new FlushSettings());
+        try {
+            List<Accomodation> found = new LocalAccomodationProvider(db)
+                .searchAccomodations(new AccomodationSearchCriteria(null, null));
+            ArrayList<String[]> values = new ArrayList<String[]>(found.size());
+            ArrayList<SerializableAccomodation> defaults = new ArrayList<SerializableAccomodation>(found.size());
+            for (Accomodation a : found) {
+                values.add(db.read(a.getRecordNumber()));
+                defaults.add(new SerializableAccomodation(a));
+            }
+            int count = found.size();
+            System.out.println(count + " records, " + rounds + " rounds");
+            measure("String[] records", values, count, rounds);
+            measure("Default serialization", defaults, count, rounds);
+            measure("Compact accomodations", new ArrayList<Accomodation>(found), count, rounds);
+            measure("Compact list", found, count, rounds);
+        } finally {
+            db.close();
+            file.delete();
+        }
+    }
+}
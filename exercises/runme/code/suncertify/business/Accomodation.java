@@ -1,5 +1,185 @@
 package suncertify.business;
 
-public class Accomodation {
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * A room available for one night, as stored in a record of the database.
+ * Accomodations travel between the client and the server, so they only hold plain values.
+ * 
+ * They are written in a compact format of their own instead of the default serialization:
+ * the record number, then each value as a length and its characters, one byte each as in
+ * the database file, without field names or descriptors.
+ */
+public class Accomodation implements Externalizable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 3207469371520133742L;
+
+    // The size of an accomodation whose record does not hold a number
+    static final int UNKNOWN_SIZE = -1;
+    // The largest size the compact format holds
+    static final int MAX_SIZE = Short.MAX_VALUE;
+
+    // Not final, as they are read after construction when the accomodation is deserialized.
+    // The record of the accomodation; -1 for an accomodation that is not in the database yet
+    private int recordNumber;
+    private String name;
+    private String location;
+    private int size;
+    private boolean smoking;
+    private String rate;
+    private String date;
+    // Id of the customer who booked the room; empty when it is available
+    private String owner;
+
+    /**
+     * Only for deserialization.
+     */
+    public Accomodation() {
+        this(-1, null, null, 0, false, null, null, "");
+    }
+
+    public Accomodation(String name, String location, int size, boolean smoking, String rate, String date) {
+        this(-1, name, location, size, smoking, rate, date, "");
+    }
+
+    public Accomodation(int recordNumber, String name, String location, int size, boolean smoking,
+            String rate, String date, String owner) {
+        this.recordNumber = recordNumber;
+        this.name = name;
+        this.location = location;
+        this.size = size;
+        this.smoking = smoking;
+        this.rate = rate;
+        this.date = date;
+        this.owner = (owner == null) ? "" : owner;
+    }
+
+    public int getRecordNumber() { return recordNumber; }
+    public String getName() { return name; }
+    public String getLocation() { return location; }
+    public int getSize() { return size; }
+    public boolean isSmoking() { return smoking; }
+    public String getRate() { return rate; }
+    public String getDate() { return date; }
+    public String getOwner() { return owner; }
+
+    public boolean isBooked() {
+        return owner.length() > 0;
+    }
+
+    /**
+     * Returns a copy of the accomodation booked by the given customer.
+     */
+    public Accomodation bookedBy(String customerId) {
+        return new Accomodation(recordNumber, name, location, size, smoking, rate, date, customerId);
+    }
+
+    /**
+     * Builds an accomodation from the values of its record, in the order of the fields in the database file.
+     * A size that is not a number, or too large, is UNKNOWN_SIZE: booking leaves it as it is in the
+     * record, and updating the accomodation requires a valid size.
+     */
+    static Accomodation fromRecord(int recordNumber, String[] values) {
+        int size;
+        try {
+            size = Integer.parseInt(values[2].trim());
+            if (size < 0 || size > MAX_SIZE) {
+                size = UNKNOWN_SIZE;
+            }
+        } catch (NumberFormatException e) {
+            size = UNKNOWN_SIZE;
+        }
+        return new Accomodation(recordNumber, values[0], values[1], size, "Y".equalsIgnoreCase(values[3]),
+                values[4], values[5], values[6]);
+    }
+
+    /**
+     * Returns the values of the record of the accomodation, in the order of the fields in the database file.
+     */
+    String[] toRecordValues() {
+        return new String[] { name, location, String.valueOf(size), smoking ? "Y" : "N", rate, date, owner };
+    }
+
+    /**
+     * Writes the accomodation in the compact format.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        if (size < UNKNOWN_SIZE || size > MAX_SIZE) {
+            // Would be read back as another size
+            throw new IllegalArgumentException("Size " + size + " out of range for accomodation " + recordNumber);
+        }
+        out.writeInt(recordNumber);
+        writeString(out, name);
+        writeString(out, location);
+        out.writeShort(size);
+        out.writeBoolean(smoking);
+        writeString(out, rate);
+        writeString(out, date);
+        writeString(out, owner);
+    }
+
+    /**
+     * Reads the accomodation written by writeTo().
+     */
+    void readFrom(DataInput in) throws IOException {
+        recordNumber = in.readInt();
+        name = readString(in);
+        location = readString(in);
+        size = in.readShort();
+        smoking = in.readBoolean();
+        rate = readString(in);
+        date = readString(in);
+        owner = readString(in);
+    }
+
+    /**
+     * Writes a value as its length followed by the low eight bits of its characters, the way it is stored
+     * in the database file. Lengths below 255 take one byte, which covers all the fields of the file;
+     * longer values and null are marked with 255 followed by the length as an int (-1 for null).
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        int length = (value == null) ? -1 : value.length();
+        if (length >= 0 && length < 255) {
+            out.writeByte(length);
+        } else {
+            out.writeByte(255);
+            out.writeInt(length);
+        }
+        if (length > 0) {
+            out.writeBytes(value);
+        }
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length == 255) {
+            length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        // Each byte is the character of the same code, as the low eight bits were written
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+
+    @Override
+    public String toString() {
+        return recordNumber + ": " + name + ", " + location + ", " + size + ", " + (smoking ? "Y" : "N")
+            + ", " + rate + ", " + date + ", " + owner;
+    }
 }
@@ -0,0 +1,13 @@
+package suncertify.business;
+
+public class AccomodationAlreadyBookedException extends AccomodationServicesException {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 6104723560383312267L;
+
+    // There is no reason for instantiating this exception from outside the package
+    // hence the constructors use default access
+    AccomodationAlreadyBookedException() { }
+    AccomodationAlreadyBookedException(String message) { super(message);  }
+}
@@ -0,0 +1,100 @@
+package suncertify.business;
+
+import java.util.*;
+
+/**
+ * The copies of accomodations kept by a remote client, the least recently used ones being dropped
+ * first when there are too many.
+ *
+ * Every accomodation read from the server comes with the number of the last change made before it
+ * was read and the records changed since the last change the client knew of (see
+ * VersionedAccomodations). The copies of those records are dropped before the new ones are kept,
+ * so a copy never predates a change the client was told about. Responses may come back in any order:
+ * the accomodations of a response older than one already applied are not kept, as a change they
+ * miss may have been told about by the newer one. The same goes for a read sent before the client
+ * changed an accomodation itself, whose copy it drops right away.
+ */
+class AccomodationCache {
+
+    private final LinkedHashMap<Integer, Accomodation> accomodations;
+    // The last change known of, sent to the server with each read
+    private long knownChange = 0;
+    // Counts the changes made by the client, to tell the reads sent before one of them
+    private long localChanges = 0;
+
+    AccomodationCache(final int capacity) {
+        this.accomodations = new LinkedHashMap<Integer, Accomodation>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Accomodation> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the copy of the accomodation, or null if there is none.
+     */
+    synchronized Accomodation get(int recordNumber) {
+        return accomodations.get(recordNumber);
+    }
+
+    synchronized long getKnownChange() {
+        return knownChange;
+    }
+
+    /**
+     * Returns the number of changes made by the client so far; to be taken before sending a read.
+     */
+    synchronized long getLocalChanges() {
+        return localChanges;
+    }
+
+    /**
+     * Drops the copy of an accomodation the client is changing. To be called once the change is over,
+     * whether it succeeded or not.
+     */
+    synchronized void changed(int recordNumber) {
+        accomodations.remove(recordNumber);
+        localChanges++;
+    }
+
+    /**
+     * Drops all the copies, when the client may have changed accomodations it cannot tell.
+     */
+    synchronized void clear() {
+        accomodations.clear();
+        localChanges++;
+    }
+
+    /**
+     * Applies the response to a read.
+     *
+     * @param sentKnownChange The last change known of when the read was sent.
+     * @param sentLocalChanges The changes made by the client when the read was sent.
+     */
+    synchronized void apply(VersionedAccomodations read, long sentKnownChange, long sentLocalChanges) {
+        int[] changedRecords = read.getChangedRecords();
+        boolean newer = read.getChangeNumber() >= knownChange;
+        if (changedRecords == null) {
+            accomodations.clear();
+            if (read.getChangeNumber() < sentKnownChange) {
+                // The server restarted and numbers its changes from lower than before
+                knownChange = read.getChangeNumber();
+                return;
+            }
+        } else {
+            for (int recordNumber : changedRecords) {
+                accomodations.remove(recordNumber);
+            }
+        }
+        if (!newer || sentLocalChanges != localChanges) {
+            return;
+        }
+        knownChange = read.getChangeNumber();
+        for (Accomodation accomodation : read.getAccomodations()) {
+            accomodations.put(accomodation.getRecordNumber(), accomodation);
+        }
+    }
+}
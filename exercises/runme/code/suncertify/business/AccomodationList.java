@@ -0,0 +1,75 @@
+package suncertify.business;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A list of accomodations sent as a whole, e.g. the result of a search.
+ * 
+ * Serializing a list of objects writes a header for every object of it. This list writes the
+ * number of accomodations followed by the compact form of each one, so sending a search result
+ * costs little more than the values themselves.
+ */
+class AccomodationList extends AbstractList<Accomodation> implements Externalizable, RandomAccess {
+    /**
+     *
+     */
+    private static final long serialVersionUID = -6013566434771869271L;
+
+    private List<Accomodation> accomodations;
+
+    /**
+     * Only for deserialization.
+     */
+    public AccomodationList() {
+        this.accomodations = Collections.emptyList();
+    }
+
+    AccomodationList(List<Accomodation> accomodations) {
+        this.accomodations = accomodations;
+    }
+
+    @Override
+    public Accomodation get(int index) {
+        return accomodations.get(index);
+    }
+
+    @Override
+    public int size() {
+        return accomodations.size();
+    }
+
+    /**
+     * Writes the number of accomodations followed by each one in the compact format.
+     */
+    static void writeAll(DataOutput out, List<Accomodation> accomodations) throws IOException {
+        out.writeInt(accomodations.size());
+        for (Accomodation accomodation : accomodations) {
+            accomodation.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads the accomodations written by writeAll().
+     */
+    static AccomodationList readAll(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<Accomodation> read = new ArrayList<Accomodation>(count);
+        for (int i = 0; i < count; i++) {
+            Accomodation accomodation = new Accomodation();
+            accomodation.readFrom(in);
+            read.add(accomodation);
+        }
+        return new AccomodationList(read);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeAll(out, accomodations);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        accomodations = readAll(in).accomodations;
+    }
+}
@@ -0,0 +1,63 @@
+package suncertify.business;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * One page of the accomodations matching search criteria, with the token to ask for the next page.
+ * The token is only meaningful to the provider that returned it.
+ */
+public class AccomodationPage implements Externalizable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = -1873400416227356198L;
+
+    // Not final, as they are read after construction when deserialized.
+    private List<Accomodation> accomodations;
+    // Null after the last page
+    private String nextPageToken;
+
+    /**
+     * Only for deserialization.
+     */
+    public AccomodationPage() {
+        this(Collections.<Accomodation>emptyList(), null);
+    }
+
+    AccomodationPage(List<Accomodation> accomodations, String nextPageToken) {
+        this.accomodations = accomodations;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<Accomodation> getAccomodations() { return accomodations; }
+
+    /**
+     * Returns the token of the next page, or null if this page is the last one.
+     * The next page may turn out to be empty.
+     */
+    public String getNextPageToken() { return nextPageToken; }
+
+    /**
+     * Writes the token of the next page, then the accomodations as AccomodationList does.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        Accomodation.writeString(out, nextPageToken);
+        AccomodationList.writeAll(out, accomodations);
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        nextPageToken = Accomodation.readString(in);
+        accomodations = AccomodationList.readAll(in);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+}
@@ -1,5 +1,38 @@
 package suncertify.business;
 
-public class AccomodationSearchCriteria {
+import java.io.Serializable;
 
+/**
+ * What the user searches for: accomodations whose name and/or location are exactly the given ones.
+ * A null name or location matches any.
+ */
+public class AccomodationSearchCriteria implements Serializable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = -2395361950227001451L;
+
+    private final String name;
+    private final String location;
+
+    public AccomodationSearchCriteria(String name, String location) {
+        this.name = name;
+        this.location = location;
+    }
+
+    public String getName() { return name; }
+    public String getLocation() { return location; }
+
+    /**
+     * Returns the criteria for DB.find(). find() matches prefixes, so its results must still be
+     * checked with matches().
+     */
+    String[] toDatabaseCriteria() {
+        return new String[] { name, location, null, null, null, null, null };
+    }
+
+    boolean matches(Accomodation accomodation) {
+        return (name == null || name.equals(accomodation.getName()))
+            && (location == null || location.equals(accomodation.getLocation()));
+    }
 }
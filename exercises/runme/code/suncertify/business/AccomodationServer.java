@@ -4,32 +4,135 @@ import java.rmi.*;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+import java.util.Map;
+
+import suncertify.db.DB;
+
+/**
+ * Serves the accomodations of a database to remote clients over RMI.
+ *
+ * The server is stateless: every operation runs entirely on the server, locks included, through
+ * a LocalAccomodationProvider, so a client that disappears never leaves a record locked. The server
+ * starts its own registry, so no rmiregistry process has to be run, and all classes are on the
+ * client's class path, so nothing is downloaded.
+ *
+ * The server numbers the changes made to the database (see RecordChangeLog), so that the
+ * accomodations it returns tell the client which of its copies are out of date.
+ */
+public class AccomodationServer implements RemoteAccomodationServices {
 
-public class AccomodationServer implements Remote {
-    
     public static final String SERVER_NAME = "AccomodationServer";
-    
-    public static AccomodationServer getRemoteServer(String serverData) throws RemoteException, NotBoundException {
-        Registry registry = LocateRegistry.getRegistry(serverData);
-        return (AccomodationServer)registry.lookup(SERVER_NAME);
+
+    private final AccomodationServices services;
+    private final RecordChangeLog changes;
+    private Registry registry = null;
+
+    AccomodationServer(DB db) {
+        this.services = new LocalAccomodationProvider(db);
+        this.changes = new RecordChangeLog(db);
+    }
+
+    /**
+     * Looks up the server.
+     *
+     * @param serverData The host of the server, optionally followed by a colon and the registry port.
+     */
+    public static RemoteAccomodationServices getRemoteServer(String serverData) throws RemoteException, NotBoundException {
+        String host = serverData;
+        int port = Registry.REGISTRY_PORT;
+        int colon = serverData.lastIndexOf(':');
+        if (colon >= 0) {
+            host = serverData.substring(0, colon);
+            port = Integer.parseInt(serverData.substring(colon + 1));
+        }
+        Registry registry = LocateRegistry.getRegistry(host, port);
+        return (RemoteAccomodationServices)registry.lookup(SERVER_NAME);
     }
-    
-    public static void startServer() {
+
+    /**
+     * Exports a server for the given database and binds it in a registry created on the given port.
+     *
+     * @return The server, to stop it with.
+     */
+    public static AccomodationServer startServer(DB db, int port) throws RemoteException {
+        AccomodationServer server = new AccomodationServer(db);
+        RemoteAccomodationServices stub = (RemoteAccomodationServices)UnicastRemoteObject.exportObject(server, 0);
+        server.registry = LocateRegistry.createRegistry(port);
+        try {
+            server.registry.bind(SERVER_NAME, stub);
+        } catch (AlreadyBoundException e) {
+            // Cannot happen; the registry was just created
+        }
+        System.out.println("Server ready on port " + port + ".");
+        return server;
+    }
+
+    /**
+     * Stops accepting calls. The database stays open.
+     */
+    public void stopServer() {
+        changes.close();
+        try {
+            registry.unbind(SERVER_NAME);
+        } catch (Exception e) {
+            // Already gone
+        }
         try {
-            AccomodationServer server = (AccomodationServer)UnicastRemoteObject.exportObject(new AccomodationServer(),0);
+            UnicastRemoteObject.unexportObject(this, true);
+            UnicastRemoteObject.unexportObject(registry, true);
+        } catch (NoSuchObjectException e) {
+            // Already stopped
+        }
+    }
 
-            // Bind the remote object's stun in the registry
-            Registry registry = LocateRegistry.getRegistry();
-            registry.bind(SERVER_NAME, server);
+    @Override
+    public VersionedAccomodations searchAccomodations(AccomodationSearchCriteria criteria, long knownChange)
+            throws AccomodationServicesException {
+        // Taken before reading, so that the values include all the changes up to it
+        long changeNumber = changes.getLastChange();
+        return changes.versioned(knownChange, changeNumber, services.searchAccomodations(criteria));
+    }
+
+    @Override
+    public AccomodationPage searchAccomodations(AccomodationSearchCriteria criteria, int pageSize, String pageToken)
+            throws AccomodationServicesException {
+        return services.searchAccomodations(criteria, pageSize, pageToken);
+    }
+
+    @Override
+    public VersionedAccomodations getAccomodation(int recordNumber, long knownChange)
+            throws AccomodationServicesException {
+        long changeNumber = changes.getLastChange();
+        return changes.versioned(knownChange, changeNumber,
+            Collections.singletonList(services.getAccomodation(recordNumber)));
+    }
+
+    @Override
+    public Accomodation bookAccomodation(int recordNumber, String customerId)
+            throws AccomodationServicesException {
+        return services.bookAccomodation(recordNumber, customerId);
+    }
+
+    @Override
+    public void updateAccomodations(Map<Integer, Accomodation> accomodations)
+            throws AccomodationServicesException {
+        services.updateAccomodations(accomodations);
+    }
 
-            System.err.println("Server ready.");
-          } catch (Exception e) {
-            System.err.println("Server exception: " + e.toString());
-            e.printStackTrace();
-          }
+    @Override
+    public int addAccomodation(Accomodation accomodation) throws AccomodationServicesException {
+        return services.addAccomodation(accomodation);
     }
-    
-    public String sayHello() {
-        return "Hello, I am the " + SERVER_NAME + ". How can I help you today?";
+
+    @Override
+    public void deleteAccomodation(int recordNumber) throws AccomodationServicesException {
+        services.deleteAccomodation(recordNumber);
+    }
+
+    @Override
+    public void updateAccomodation(int recordNumber, Accomodation accomodation)
+            throws AccomodationServicesException {
+        services.updateAccomodation(recordNumber, accomodation);
     }
 }
@@ -1,7 +1,62 @@
 package suncertify.business;
 
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the clients can do with the accomodations, whether the database is local or remote.
+ *
+ * Each operation is complete in itself: searching returns the accomodations found, not their record
+ * numbers, and booking or updating locks, checks, changes and unlocks the records in one call.
+ * A remote client thus pays one round trip per operation, and never holds a lock between two calls.
+ */
 public interface AccomodationServices {
-    public void addAccomodation(Accomodation accomodation)
+    /**
+     * Returns the accomodations matching the criteria, read in the same call.
+     */
+    public List<Accomodation> searchAccomodations(AccomodationSearchCriteria criteria)
+        throws AccomodationServicesException;
+
+    /**
+     * Returns a page of the accomodations matching the criteria, so that a client can show the first
+     * ones without waiting for all of them to be found and read.
+     *
+     * @param pageSize The maximum number of accomodations on the page.
+     * @param pageToken The token of the previous page, or null for the first page.
+     */
+    public AccomodationPage searchAccomodations(AccomodationSearchCriteria criteria, int pageSize, String pageToken)
+        throws AccomodationServicesException;
+
+    /**
+     * Returns the accomodation of the given record.
+     *
+     * @throws AccomodationNotFoundException When there is no such accomodation.
+     */
+    public Accomodation getAccomodation(int recordNumber)
+        throws AccomodationServicesException;
+
+    /**
+     * Books an available accomodation for a customer.
+     *
+     * @param customerId The 8 digit id of the customer.
+     * @return The accomodation as booked.
+     * @throws AccomodationAlreadyBookedException When another customer booked it first.
+     */
+    public Accomodation bookAccomodation(int recordNumber, String customerId)
+        throws AccomodationServicesException;
+
+    /**
+     * Stores new values for several accomodations at once; either all of them are changed or none.
+     *
+     * @param accomodations The new values, by record number.
+     */
+    public void updateAccomodations(Map<Integer, Accomodation> accomodations)
+        throws AccomodationServicesException;
+
+    /**
+     * @return The record number of the new accomodation.
+     */
+    public int addAccomodation(Accomodation accomodation)
         throws AccomodationServicesException;
     public void deleteAccomodation(int recordNumber)
         throws AccomodationServicesException;
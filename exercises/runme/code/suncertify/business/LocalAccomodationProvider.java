@@ -1,31 +1,391 @@
 package suncertify.business;
 
+import java.util.*;
+
 import suncertify.db.*;
+import suncertify.db.SecurityException;
 
+/**
+ * Works on the accomodations directly through the database, in the same VM.
+ * The remote server uses it too, so local and remote clients get the same behaviour.
+ *
+ * When the database supports batched operations, searching reads all the records found at once
+ * and updating several accomodations locks, updates and unlocks them together. Searching a page at a
+ * time uses a cursor of the database when it is a Data.
+ */
 public class LocalAccomodationProvider implements AccomodationServices {
 
-    LocalAccomodationProvider(DB dbManager) {
-        
+    private final DB db;
+    // The position of the customer id in the values of a record
+    private static final int OWNER_FIELD = 6;
+
+    public LocalAccomodationProvider(DB dbManager) {
+        this.db = dbManager;
     }
-    
+
     @Override
-    public void addAccomodation(Accomodation accomodation)
-    {
-        // TODO Auto-generated method stub
+    public List<Accomodation> searchAccomodations(AccomodationSearchCriteria criteria)
+            throws AccomodationServicesException {
+        try {
+            int[] recNos = db.find(criteria.toDatabaseCriteria());
+            String[][] records;
+            if (db instanceof BatchDB) {
+                records = ((BatchDB)db).readMany(recNos);
+            } else {
+                records = new String[recNos.length][];
+                for (int i = 0; i < recNos.length; i++) {
+                    try {
+                        records[i] = db.read(recNos[i]);
+                    } catch (RecordNotFoundException e) {
+                        // Deleted since it was found; left out
+                    }
+                }
+            }
+            List<Accomodation> found = new ArrayList<Accomodation>(recNos.length);
+            for (int i = 0; i < recNos.length; i++) {
+                if (records[i] == null) {
+                    continue;
+                }
+                Accomodation accomodation = Accomodation.fromRecord(recNos[i], records[i]);
+                if (criteria.matches(accomodation)) {
+                    found.add(accomodation);
+                }
+            }
+            // Sent to remote clients in the compact format
+            return new AccomodationList(found);
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
     }
 
+    /**
+     * Pages through the records with a cursor when the database is a Data, so that a page costs
+     * the same however many records match. Other databases are searched as a whole each time,
+     * and paged through in ascending order of the record numbers.
+     */
     @Override
-    public void deleteAccomodation(int recordNumber)
+    public AccomodationPage searchAccomodations(AccomodationSearchCriteria criteria, int pageSize, String pageToken)
+            throws AccomodationServicesException {
+        if (pageSize <= 0) {
+            throw new AccomodationServicesException("The page size must be at least 1.");
+        }
+        try {
+            if (db instanceof Data) {
+                return searchPage((Data)db, criteria, pageSize, pageToken);
+            }
+            int[] recNos = db.find(criteria.toDatabaseCriteria());
+            Arrays.sort(recNos);
+            // The token is the last record number looked at
+            int i = 0;
+            if (pageToken != null) {
+                int after = parsePageToken(pageToken);
+                while (i < recNos.length && recNos[i] <= after) {
+                    i++;
+                }
+            }
+            List<Accomodation> found = new ArrayList<Accomodation>(pageSize);
+            for (; i < recNos.length && found.size() < pageSize; i++) {
+                try {
+                    Accomodation accomodation = Accomodation.fromRecord(recNos[i], db.read(recNos[i]));
+                    if (criteria.matches(accomodation)) {
+                        found.add(accomodation);
+                    }
+                } catch (RecordNotFoundException e) {
+                    // Deleted since it was found; left out
+                }
+            }
+            String nextPageToken = (i < recNos.length) ? Integer.toString(recNos[i - 1], Character.MAX_RADIX) : null;
+            return new AccomodationPage(new AccomodationList(found), nextPageToken);
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
+    }
+
+    private static AccomodationPage searchPage(Data data, AccomodationSearchCriteria criteria, int pageSize,
+            String pageToken) throws AccomodationServicesException {
+        FindCursor cursor;
+        try {
+            // Without a limit: the cursor matches prefixes, so some of the records it returns are left out
+            cursor = data.openCursor(criteria.toDatabaseCriteria(), 0, pageToken);
+        } catch (IllegalArgumentException e) {
+            throw new AccomodationServicesException(e.getMessage());
+        }
+        List<Accomodation> found = new ArrayList<Accomodation>(pageSize);
+        while (found.size() < pageSize && cursor.hasNext()) {
+            FoundRecord record = cursor.next();
+            Accomodation accomodation = Accomodation.fromRecord(record.getRecordNumber(), record.getValues());
+            if (criteria.matches(accomodation)) {
+                found.add(accomodation);
+            }
+        }
+        return new AccomodationPage(new AccomodationList(found), cursor.getPageToken());
+    }
+
+    private static int parsePageToken(String pageToken) throws AccomodationServicesException {
+        try {
+            return Integer.parseInt(pageToken, Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            throw new AccomodationServicesException("Invalid page token " + pageToken);
+        }
+    }
+
+    @Override
+    public Accomodation getAccomodation(int recordNumber) throws AccomodationServicesException {
+        try {
+            return Accomodation.fromRecord(recordNumber, db.read(recordNumber));
+        } catch (RecordNotFoundException e) {
+            throw new AccomodationNotFoundException("No accomodation with number " + recordNumber);
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Accomodation bookAccomodation(int recordNumber, String customerId)
+            throws AccomodationServicesException {
+        if (customerId == null || !customerId.matches("\\d{8}")) {
+            throw new AccomodationServicesException("The customer id must be a number of exactly 8 digits.");
+        }
+        try {
+            long cookie = db.lock(recordNumber);
+            boolean done = false;
+            try {
+                // Read under the lock, so nobody books it between the check and the update
+                String[] values = db.read(recordNumber);
+                Accomodation accomodation = Accomodation.fromRecord(recordNumber, values);
+                if (accomodation.isBooked()) {
+                    throw new AccomodationAlreadyBookedException("Accomodation " + recordNumber
+                            + " is already booked.");
+                }
+                // Only the owner changes; the other values are written back as they were read
+                values[OWNER_FIELD] = customerId;
+                db.update(recordNumber, values, cookie);
+                done = true;
+                return accomodation.bookedBy(customerId);
+            } finally {
+                unlock(recordNumber, cookie, done);
+            }
+        } catch (RecordNotFoundException e) {
+            throw new AccomodationNotFoundException("No accomodation with number " + recordNumber);
+        } catch (SecurityException e) {
+            throw new AccomodationServicesException("The lock on accomodation " + recordNumber + " was lost.");
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void updateAccomodations(Map<Integer, Accomodation> accomodations)
             throws AccomodationServicesException {
-        // TODO Auto-generated method stub
+        if (!(db instanceof BatchDB)) {
+            updateEach(accomodations);
+            return;
+        }
+        BatchDB batchDb = (BatchDB)db;
+        int[] recNos = new int[accomodations.size()];
+        Map<Integer, String[]> data = new HashMap<Integer, String[]>();
+        int i = 0;
+        for (Map.Entry<Integer, Accomodation> e : accomodations.entrySet()) {
+            checkSize(e.getValue());
+            recNos[i++] = e.getKey();
+            data.put(e.getKey(), e.getValue().toRecordValues());
+        }
+        try {
+            Map<Integer, Long> cookies = batchDb.lockMany(recNos);
+            boolean done = false;
+            try {
+                batchDb.updateMany(data, cookies);
+                done = true;
+            } finally {
+                if (done) {
+                    batchDb.unlockMany(cookies);
+                } else {
+                    try {
+                        batchDb.unlockMany(cookies);
+                    } catch (RecordNotFoundException e) {
+                        // Not to hide the failure of the update
+                    } catch (SecurityException e) {
+                        // Not to hide the failure of the update
+                    }
+                }
+            }
+        } catch (RecordNotFoundException e) {
+            throw new AccomodationNotFoundException(e.getMessage());
+        } catch (SecurityException e) {
+            throw new AccomodationServicesException("The lock on an accomodation was lost.");
+        } catch (DuplicateKeyException e) {
+            throw new AccomodationServicesException(e.getMessage());
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
+    }
 
+    @Override
+    public int addAccomodation(Accomodation accomodation) throws AccomodationServicesException {
+        checkSize(accomodation);
+        try {
+            return db.create(accomodation.toRecordValues());
+        } catch (DuplicateKeyException e) {
+            throw new AccomodationServicesException(e.getMessage());
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void deleteAccomodation(int recordNumber)
+            throws AccomodationServicesException {
+        try {
+            long cookie = db.lock(recordNumber);
+            boolean done = false;
+            try {
+                db.delete(recordNumber, cookie);
+                done = true;
+            } finally {
+                unlock(recordNumber, cookie, done);
+            }
+        } catch (RecordNotFoundException e) {
+            throw new AccomodationNotFoundException("No accomodation with number " + recordNumber);
+        } catch (SecurityException e) {
+            throw new AccomodationServicesException("The lock on accomodation " + recordNumber + " was lost.");
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
     }
 
     @Override
     public void updateAccomodation(int recordNumber, Accomodation accomodation)
-            throws AccomodationNotFoundException {
-        // TODO Auto-generated method stub
+            throws AccomodationServicesException {
+        checkSize(accomodation);
+        try {
+            long cookie = db.lock(recordNumber);
+            boolean done = false;
+            try {
+                db.update(recordNumber, accomodation.toRecordValues(), cookie);
+                done = true;
+            } finally {
+                unlock(recordNumber, cookie, done);
+            }
+        } catch (RecordNotFoundException e) {
+            throw new AccomodationNotFoundException("No accomodation with number " + recordNumber);
+        } catch (SecurityException e) {
+            throw new AccomodationServicesException("The lock on accomodation " + recordNumber + " was lost.");
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Updates several accomodations through a database without batched operations, with the same
+     * all or none outcome: all records are locked and read before any is changed, and when one of
+     * the updates fails, the records updated before it get their old values back.
+     */
+    private void updateEach(Map<Integer, Accomodation> accomodations) throws AccomodationServicesException {
+        for (Accomodation accomodation : accomodations.values()) {
+            checkSize(accomodation);
+        }
+        // Locked in ascending order of their numbers, like lockMany() does, so that
+        // two clients updating overlapping sets cannot deadlock
+        SortedMap<Integer, Accomodation> sorted = new TreeMap<Integer, Accomodation>(accomodations);
+        Map<Integer, Long> cookies = new LinkedHashMap<Integer, Long>();
+        boolean done = false;
+        try {
+            try {
+                for (int recordNumber : sorted.keySet()) {
+                    cookies.put(recordNumber, db.lock(recordNumber));
+                }
+                Map<Integer, String[]> oldValues = new HashMap<Integer, String[]>();
+                for (int recordNumber : sorted.keySet()) {
+                    oldValues.put(recordNumber, db.read(recordNumber));
+                }
+                List<Integer> updated = new ArrayList<Integer>();
+                try {
+                    for (Map.Entry<Integer, Accomodation> e : sorted.entrySet()) {
+                        db.update(e.getKey(), e.getValue().toRecordValues(), cookies.get(e.getKey()));
+                        updated.add(e.getKey());
+                    }
+                } catch (Exception e) {
+                    restore(updated, oldValues, cookies, e);
+                    throw e;
+                }
+                done = true;
+            } finally {
+                // All records are unlocked even if some of them fail, like unlockMany() does
+                RecordNotFoundException notFound = null;
+                SecurityException lost = null;
+                for (Map.Entry<Integer, Long> e : cookies.entrySet()) {
+                    try {
+                        unlock(e.getKey(), e.getValue(), done);
+                    } catch (RecordNotFoundException ex) {
+                        notFound = (notFound == null) ? ex : notFound;
+                    } catch (SecurityException ex) {
+                        lost = (lost == null) ? ex : lost;
+                    }
+                }
+                if (notFound != null) {
+                    throw notFound;
+                }
+                if (lost != null) {
+                    throw lost;
+                }
+            }
+        } catch (RecordNotFoundException e) {
+            throw new AccomodationNotFoundException(e.getMessage());
+        } catch (SecurityException e) {
+            throw new AccomodationServicesException("The lock on an accomodation was lost.");
+        } catch (DatabaseRuntimeException e) {
+            throw new AccomodationServicesException("Database error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes back the old values of the records updated before an update failed, in reverse order.
+     * The failure is reported as it is when all of them are restored.
+     */
+    private void restore(List<Integer> updated, Map<Integer, String[]> oldValues, Map<Integer, Long> cookies,
+            Exception failure) throws AccomodationServicesException {
+        List<Integer> notRestored = new ArrayList<Integer>();
+        for (int i = updated.size() - 1; i >= 0; i--) {
+            int recordNumber = updated.get(i);
+            try {
+                db.update(recordNumber, oldValues.get(recordNumber), cookies.get(recordNumber));
+            } catch (Exception e) {
+                notRestored.add(recordNumber);
+            }
+        }
+        if (!notRestored.isEmpty()) {
+            throw new AccomodationServicesException("The update failed (" + failure.getMessage()
+                    + ") and the accomodations " + notRestored + " could not be given their old values back.");
+        }
+    }
 
+    /**
+     * Releases a lock taken for an operation. When the operation failed, a failure to release
+     * the lock is left out, so that it does not hide the failure of the operation.
+     */
+    private void unlock(int recordNumber, long cookie, boolean done)
+            throws RecordNotFoundException, SecurityException {
+        if (done) {
+            db.unlock(recordNumber, cookie);
+            return;
+        }
+        try {
+            db.unlock(recordNumber, cookie);
+        } catch (RecordNotFoundException e) {
+            // The record went away with its lock
+        } catch (SecurityException e) {
+            // The lock was lost, e.g. its lease ended
+        }
     }
 
+    /**
+     * Rejects a size the database file or the compact format cannot hold, as well as the
+     * unknown size of an accomodation whose record does not hold a number.
+     */
+    private static void checkSize(Accomodation accomodation) throws AccomodationServicesException {
+        if (accomodation.getSize() < 0 || accomodation.getSize() > Accomodation.MAX_SIZE) {
+            throw new AccomodationServicesException("The size of the accomodation must be a number from 0 to "
+                    + Accomodation.MAX_SIZE + ".");
+        }
+    }
 }
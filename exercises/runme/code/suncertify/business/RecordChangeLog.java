@@ -0,0 +1,87 @@
+package suncertify.business;
+
+import java.util.*;
+
+import suncertify.db.*;
+
+/**
+ * Numbers the changes made to the records of a database and remembers the latest ones, so that
+ * a server can tell a client which of the accomodations it keeps a copy of have changed since the
+ * last change it knows of.
+ *
+ * Only the last CAPACITY changes are remembered; a client that knows of an older one is told
+ * that any of its copies may have changed. The numbers start from the time the log is created,
+ * so that after the server restarts, the changes a client knows of are older than any in the log.
+ * A database other than Data cannot tell about its changes, and every client is always told that
+ * all its copies may have changed.
+ */
+class RecordChangeLog implements RecordChangeListener {
+
+    private static final int CAPACITY = 4096;
+
+    private final Data data;
+    // The record number of change n is at n % CAPACITY
+    private final int[] changedRecords = new int[CAPACITY];
+    private final long firstChange;
+    private long lastChange;
+
+    RecordChangeLog(DB db) {
+        // Room for 65536 changes per millisecond before the numbers of a restarted server overlap
+        firstChange = System.currentTimeMillis() << 16;
+        lastChange = firstChange;
+        data = (db instanceof Data) ? (Data)db : null;
+        if (data != null) {
+            data.addRecordChangeListener(this);
+        }
+    }
+
+    /**
+     * Stops following the changes of the database.
+     */
+    void close() {
+        if (data != null) {
+            data.removeRecordChangeListener(this);
+        }
+    }
+
+    @Override
+    public synchronized void recordChanged(int recNo) {
+        lastChange++;
+        changedRecords[(int)(lastChange % CAPACITY)] = recNo;
+    }
+
+    /**
+     * Returns the number of the last change. Values read afterwards include that change and all the
+     * previous ones.
+     */
+    synchronized long getLastChange() {
+        return lastChange;
+    }
+
+    /**
+     * Returns the records changed after the change known by a client, up to the given one.
+     *
+     * @return The record numbers, or null if the changes are not known.
+     */
+    synchronized int[] getChangedRecords(long knownChange, long upToChange) {
+        // Changes made since upToChange may already have overwritten the oldest ones
+        if (data == null || knownChange < firstChange || knownChange < lastChange - CAPACITY
+                || knownChange > upToChange) {
+            return null;
+        }
+        int[] records = new int[(int)(upToChange - knownChange)];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = changedRecords[(int)((knownChange + 1 + i) % CAPACITY)];
+        }
+        return records;
+    }
+
+    /**
+     * Returns accomodations read after the given change, along with the records changed since
+     * the one known by the client.
+     */
+    VersionedAccomodations versioned(long knownChange, long readAfterChange, List<Accomodation> accomodations) {
+        return new VersionedAccomodations(readAfterChange, getChangedRecords(knownChange, readAfterChange),
+            accomodations);
+    }
+}
@@ -1,37 +1,189 @@
 package suncertify.business;
 
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works on the accomodations of a remote server. Each operation is a single call to the server,
+ * except reading an accomodation, which is served from the copies kept of the accomodations
+ * read before when it can (see AccomodationCache). A copy never predates a change the client
+ * made or was told about by the server.
+ */
 public class RemoteAccomodationProvider implements AccomodationServices {
-    
-    RemoteAccomodationProvider(String serverData) {
+
+    /**
+     * How the server is reached.
+     */
+    public enum Transport {
+        // AccomodationServer
+        RMI,
+        // SocketAccomodationServer, with the calls of all threads pipelined on one connection
+        SOCKET
+    }
+
+    // Copies kept of the accomodations read, by default
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private final RemoteAccomodationServices server;
+    private final AccomodationCache cache;
+
+    /**
+     * Reaches the server over RMI.
+     *
+     * @param serverData The host of the server, optionally followed by a colon and the registry port.
+     * @throws AccomodationServicesException When the server cannot be reached.
+     */
+    public RemoteAccomodationProvider(String serverData) throws AccomodationServicesException {
+        this(serverData, Transport.RMI, DEFAULT_CACHE_SIZE);
+    }
+
+    public RemoteAccomodationProvider(String serverData, Transport transport) throws AccomodationServicesException {
+        this(serverData, transport, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param serverData The host of the server, optionally followed by a colon and the port
+     *        of the registry or of the socket server.
+     * @param cacheSize The number of accomodations to keep copies of; 0 to read them from the server every time.
+     * @throws AccomodationServicesException When the server cannot be reached.
+     */
+    public RemoteAccomodationProvider(String serverData, Transport transport, int cacheSize)
+            throws AccomodationServicesException {
+        cache = new AccomodationCache(cacheSize);
         try {
-            AccomodationServer server = AccomodationServer.getRemoteServer(serverData);
-            String response = server.sayHello();
-            System.out.println("Response: " + response);
-          } catch (Exception e) {
-            System.err.println("Client exception: " + e.toString());
-            e.printStackTrace();
-          }
+            if (transport == Transport.SOCKET) {
+                server = new SocketAccomodationClient(serverData);
+            } else {
+                server = AccomodationServer.getRemoteServer(serverData);
+            }
+        } catch (NotBoundException e) {
+            throw new AccomodationServicesException("No accomodation server at " + serverData);
+        } catch (IOException e) {
+            throw new AccomodationServicesException("Cannot reach the server at " + serverData + ": " + e.getMessage());
+        }
     }
-    
+
+    /**
+     * Closes the connection to a socket server; RMI connections are closed by RMI when idle.
+     */
+    public void close() {
+        if (server instanceof SocketAccomodationClient) {
+            ((SocketAccomodationClient)server).close();
+        }
+    }
+
+    private static AccomodationServicesException failure(RemoteException e) {
+        return new AccomodationServicesException("Communication with the server failed: " + e.getMessage());
+    }
+
+    // Searches are always sent to the server, which alone can tell the matching accomodations
     @Override
-    public void addAccomodation(Accomodation accomodation)
+    public List<Accomodation> searchAccomodations(AccomodationSearchCriteria criteria)
             throws AccomodationServicesException {
-        // TODO Auto-generated method stub
+        long localChanges = cache.getLocalChanges();
+        long knownChange = cache.getKnownChange();
+        try {
+            VersionedAccomodations found = server.searchAccomodations(criteria, knownChange);
+            cache.apply(found, knownChange, localChanges);
+            return found.getAccomodations();
+        } catch (RemoteException e) {
+            throw failure(e);
+        }
+    }
 
+    // The pages are not versioned, so the copies kept are left as they are
+    @Override
+    public AccomodationPage searchAccomodations(AccomodationSearchCriteria criteria, int pageSize, String pageToken)
+            throws AccomodationServicesException {
+        try {
+            return server.searchAccomodations(criteria, pageSize, pageToken);
+        } catch (RemoteException e) {
+            throw failure(e);
+        }
     }
 
     @Override
-    public void deleteAccomodation(int recordNumber) 
+    public Accomodation getAccomodation(int recordNumber) throws AccomodationServicesException {
+        Accomodation copy = cache.get(recordNumber);
+        if (copy != null) {
+            return copy;
+        }
+        long localChanges = cache.getLocalChanges();
+        long knownChange = cache.getKnownChange();
+        try {
+            VersionedAccomodations read = server.getAccomodation(recordNumber, knownChange);
+            cache.apply(read, knownChange, localChanges);
+            return read.getAccomodations().get(0);
+        } catch (RemoteException e) {
+            throw failure(e);
+        }
+    }
+
+    @Override
+    public Accomodation bookAccomodation(int recordNumber, String customerId)
             throws AccomodationServicesException {
-        // TODO Auto-generated method stub
+        try {
+            return server.bookAccomodation(recordNumber, customerId);
+        } catch (RemoteException e) {
+            throw failure(e);
+        } finally {
+            cache.changed(recordNumber);
+        }
+    }
 
+    @Override
+    public void updateAccomodations(Map<Integer, Accomodation> accomodations)
+            throws AccomodationServicesException {
+        try {
+            server.updateAccomodations(accomodations);
+        } catch (RemoteException e) {
+            throw failure(e);
+        } finally {
+            for (int recordNumber : accomodations.keySet()) {
+                cache.changed(recordNumber);
+            }
+        }
     }
 
     @Override
-    public void updateAccomodation(int recordNumber, Accomodation accomodation)
+    public int addAccomodation(Accomodation accomodation)
             throws AccomodationServicesException {
-        // TODO Auto-generated method stub
+        try {
+            int recordNumber = server.addAccomodation(accomodation);
+            // The number may be reused from a deleted accomodation
+            cache.changed(recordNumber);
+            return recordNumber;
+        } catch (RemoteException e) {
+            // The number of the accomodation added, if any, is unknown
+            cache.clear();
+            throw failure(e);
+        }
+    }
 
+    @Override
+    public void deleteAccomodation(int recordNumber)
+            throws AccomodationServicesException {
+        try {
+            server.deleteAccomodation(recordNumber);
+        } catch (RemoteException e) {
+            throw failure(e);
+        } finally {
+            cache.changed(recordNumber);
+        }
     }
 
+    @Override
+    public void updateAccomodation(int recordNumber, Accomodation accomodation)
+            throws AccomodationServicesException {
+        try {
+            server.updateAccomodation(recordNumber, accomodation);
+        } catch (RemoteException e) {
+            throw failure(e);
+        } finally {
+            cache.changed(recordNumber);
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package suncertify.business;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Map;
+
+/**
+ * The operations of AccomodationServices as exported by the server over RMI.
+ * Each call is one round trip; see AccomodationServices for what they do.
+ *
+ * The operations reading accomodations also tell which records changed since the last change
+ * the client knows of (see VersionedAccomodations), so that the client can keep copies of them.
+ */
+public interface RemoteAccomodationServices extends Remote {
+    public VersionedAccomodations searchAccomodations(AccomodationSearchCriteria criteria, long knownChange)
+        throws AccomodationServicesException, RemoteException;
+    public AccomodationPage searchAccomodations(AccomodationSearchCriteria criteria, int pageSize, String pageToken)
+        throws AccomodationServicesException, RemoteException;
+    public VersionedAccomodations getAccomodation(int recordNumber, long knownChange)
+        throws AccomodationServicesException, RemoteException;
+    public Accomodation bookAccomodation(int recordNumber, String customerId)
+        throws AccomodationServicesException, RemoteException;
+    public void updateAccomodations(Map<Integer, Accomodation> accomodations)
+        throws AccomodationServicesException, RemoteException;
+    public int addAccomodation(Accomodation accomodation)
+        throws AccomodationServicesException, RemoteException;
+    public void deleteAccomodation(int recordNumber)
+        throws AccomodationServicesException, RemoteException;
+    public void updateAccomodation(int recordNumber, Accomodation accomodation)
+        throws AccomodationServicesException, RemoteException;
+}
@@ -0,0 +1,283 @@
+package suncertify.business;
+
+import java.io.*;
+import java.net.Socket;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The client side of SocketAccomodationServer, over a single connection.
+ *
+ * Calls made from several threads share the connection: each request is sent as soon as it is made,
+ * without waiting for the responses to the earlier ones, and a reader thread hands each response over
+ * to the call with the same request number, in whatever order the server sends them.
+ *
+ * It implements RemoteAccomodationServices, like the RMI stub of AccomodationServer, so that
+ * RemoteAccomodationProvider works the same over both; a broken connection is reported
+ * as a RemoteException, and so is a call left without a response for CALL_TIMEOUT.
+ */
+class SocketAccomodationClient implements RemoteAccomodationServices, Runnable {
+
+    // How long a call waits for its response, in milliseconds. It covers the time the server may
+    // wait for a record lock, so it is long; it is there for a server that never answers.
+    static final long CALL_TIMEOUT = 120 * 1000;
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+    private final AtomicInteger nextRequestNumber = new AtomicInteger();
+    // Calls waiting for their responses, by request number
+    private final Map<Integer, CompletableFuture<byte[]>> pendingCalls
+        = new ConcurrentHashMap<Integer, CompletableFuture<byte[]>>();
+    // Set when the connection breaks; no call is sent afterwards
+    private volatile IOException failure = null;
+
+    /**
+     * @param serverData The host of the server, optionally followed by a colon and the port.
+     */
+    SocketAccomodationClient(String serverData) throws IOException {
+        String host = serverData;
+        int port = SocketAccomodationServer.DEFAULT_PORT;
+        int colon = serverData.lastIndexOf(':');
+        if (colon >= 0) {
+            host = serverData.substring(0, colon);
+            port = Integer.parseInt(serverData.substring(colon + 1));
+        }
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 8192));
+        output = socket.getOutputStream();
+        Thread reader = new Thread(this, "SocketAccomodationClient " + serverData);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Reads the responses until the connection is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                int length = input.readInt();
+                if (length < 4 || length > SocketProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte[] frame = new byte[length];
+                input.readFully(frame);
+                int requestNumber = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16)
+                    | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+                CompletableFuture<byte[]> call = pendingCalls.remove(requestNumber);
+                if (call != null) {
+                    call.complete(frame);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        // A call registered after this sees the failure, see call()
+        for (Integer requestNumber : pendingCalls.keySet()) {
+            CompletableFuture<byte[]> call = pendingCalls.remove(requestNumber);
+            if (call != null) {
+                call.completeExceptionally(failure);
+            }
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * Closes the connection. Calls still waiting for their responses fail.
+     */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    private SocketProtocol.FrameWriter newRequest(byte operation) {
+        return new SocketProtocol.FrameWriter(nextRequestNumber.incrementAndGet(), operation);
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     *
+     * @return The values of the response, after the request number and the outcome.
+     */
+    private DataInputStream call(SocketProtocol.FrameWriter request)
+            throws AccomodationServicesException, RemoteException {
+        byte[] frame = request.toByteArray();
+        int requestNumber = ((frame[4] & 0xFF) << 24) | ((frame[5] & 0xFF) << 16)
+            | ((frame[6] & 0xFF) << 8) | (frame[7] & 0xFF);
+        CompletableFuture<byte[]> call = new CompletableFuture<byte[]>();
+        pendingCalls.put(requestNumber, call);
+        byte[] response;
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            synchronized (output) {
+                output.write(frame);
+                output.flush();
+            }
+            response = call.get(CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // A late response is dropped by the reader
+            pendingCalls.remove(requestNumber);
+            throw new RemoteException("No response from the server within " + (CALL_TIMEOUT / 1000)
+                    + " seconds; the operation may still have been carried out");
+        } catch (IOException e) {
+            pendingCalls.remove(requestNumber);
+            throw new RemoteException("Connection to the server lost", e);
+        } catch (ExecutionException e) {
+            throw new RemoteException("Connection to the server lost", e.getCause());
+        } catch (InterruptedException e) {
+            pendingCalls.remove(requestNumber);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the server");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(response, 4, response.length - 4));
+        try {
+            byte outcome = in.readByte();
+            if (outcome != SocketProtocol.OK) {
+                throw SocketProtocol.exceptionOf(outcome, Accomodation.readString(in));
+            }
+        } catch (IOException e) {
+            throw new RemoteException("Invalid response from the server", e);
+        }
+        return in;
+    }
+
+    @Override
+    public VersionedAccomodations searchAccomodations(AccomodationSearchCriteria criteria, long knownChange)
+            throws AccomodationServicesException, RemoteException {
+        SocketProtocol.FrameWriter request = newRequest(SocketProtocol.SEARCH);
+        try {
+            Accomodation.writeString(request, criteria.getName());
+            Accomodation.writeString(request, criteria.getLocation());
+            request.writeLong(knownChange);
+            VersionedAccomodations found = new VersionedAccomodations();
+            found.readFrom(call(request));
+            return found;
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Invalid response from the server", e);
+        }
+    }
+
+    @Override
+    public AccomodationPage searchAccomodations(AccomodationSearchCriteria criteria, int pageSize, String pageToken)
+            throws AccomodationServicesException, RemoteException {
+        SocketProtocol.FrameWriter request = newRequest(SocketProtocol.SEARCH_PAGE);
+        try {
+            Accomodation.writeString(request, criteria.getName());
+            Accomodation.writeString(request, criteria.getLocation());
+            request.writeInt(pageSize);
+            Accomodation.writeString(request, pageToken);
+            AccomodationPage page = new AccomodationPage();
+            page.readFrom(call(request));
+            return page;
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Invalid response from the server", e);
+        }
+    }
+
+    @Override
+    public VersionedAccomodations getAccomodation(int recordNumber, long knownChange)
+            throws AccomodationServicesException, RemoteException {
+        SocketProtocol.FrameWriter request = newRequest(SocketProtocol.READ);
+        try {
+            request.writeInt(recordNumber);
+            request.writeLong(knownChange);
+            VersionedAccomodations read = new VersionedAccomodations();
+            read.readFrom(call(request));
+            return read;
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Invalid response from the server", e);
+        }
+    }
+
+    @Override
+    public Accomodation bookAccomodation(int recordNumber, String customerId)
+            throws AccomodationServicesException, RemoteException {
+        SocketProtocol.FrameWriter request = newRequest(SocketProtocol.BOOK);
+        try {
+            request.writeInt(recordNumber);
+            Accomodation.writeString(request, customerId);
+            Accomodation booked = new Accomodation();
+            booked.readFrom(call(request));
+            return booked;
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Invalid response from the server", e);
+        }
+    }
+
+    @Override
+    public void updateAccomodations(Map<Integer, Accomodation> accomodations)
+            throws AccomodationServicesException, RemoteException {
+        SocketProtocol.FrameWriter request = newRequest(SocketProtocol.UPDATE_MANY);
+        try {
+            request.writeInt(accomodations.size());
+            for (Map.Entry<Integer, Accomodation> e : accomodations.entrySet()) {
+                request.writeInt(e.getKey());
+                e.getValue().writeTo(request);
+            }
+        } catch (IOException e) {
+            // Cannot happen when writing to memory
+        }
+        call(request);
+    }
+
+    @Override
+    public int addAccomodation(Accomodation accomodation)
+            throws AccomodationServicesException, RemoteException {
+        SocketProtocol.FrameWriter request = newRequest(SocketProtocol.ADD);
+        try {
+            accomodation.writeTo(request);
+            return call(request).readInt();
+        } catch (RemoteException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Invalid response from the server", e);
+        }
+    }
+
+    @Override
+    public void deleteAccomodation(int recordNumber)
+            throws AccomodationServicesException, RemoteException {
+        SocketProtocol.FrameWriter request = newRequest(SocketProtocol.DELETE);
+        try {
+            request.writeInt(recordNumber);
+        } catch (IOException e) {
+            // Cannot happen when writing to memory
+        }
+        call(request);
+    }
+
+    @Override
+    public void updateAccomodation(int recordNumber, Accomodation accomodation)
+            throws AccomodationServicesException, RemoteException {
+        SocketProtocol.FrameWriter request = newRequest(SocketProtocol.UPDATE);
+        try {
+            request.writeInt(recordNumber);
+            accomodation.writeTo(request);
+        } catch (IOException e) {
+            // Cannot happen when writing to memory
+        }
+        call(request);
+    }
+}
@@ -0,0 +1,385 @@
+package suncertify.business;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import suncertify.db.DB;
+import suncertify.util.VirtualThreads;
+
+/**
+ * Serves the accomodations of a database to remote clients over plain sockets, as an alternative
+ * to AccomodationServer for many clients that are idle most of the time.
+ *
+ * A single thread watches all the connections with a selector: it accepts them, reads the requests
+ * and writes the responses, without ever blocking on one connection. An idle client thus only costs
+ * its socket and a small buffer, where RMI keeps a thread per connection. The requests themselves run
+ * on a pool of worker threads, since they may wait for a record lock; a connection can have several
+ * requests running at once, and each response goes back as soon as it is ready. See SocketProtocol
+ * for the messages. Like AccomodationServer, the server keeps no state per client, and numbers
+ * the changes made to the database so that clients can keep copies of the accomodations.
+ *
+ * The requests can also run on a virtual thread each (see ExecutionMode), so that requests waiting
+ * for a record lock do not hold on to a worker, however many they are.
+ */
+public class SocketAccomodationServer implements Runnable {
+
+    public static final int DEFAULT_PORT = 1100;
+
+    /**
+     * What the requests run on.
+     */
+    public enum ExecutionMode {
+        // A fixed pool of platform threads; a request waiting for a lock keeps its worker
+        WORKER_POOL,
+        // A virtual thread per request; only for a Java runtime with virtual threads (see VirtualThreads)
+        VIRTUAL_THREADS
+    }
+
+    private static final int WORKER_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * The state of a connection, attached to its selection key.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        // The bytes read and not yet taken as requests; grows for large requests
+        private ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        // Responses waiting for the channel to accept them, added by the workers
+        private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<ByteBuffer>();
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Queues a response; the selector thread writes it.
+         */
+        void respond(byte[] frame) {
+            output.add(ByteBuffer.wrap(frame));
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs one request on a worker thread and sends its response.
+     */
+    private class Request implements Runnable {
+        private final Connection connection;
+        private final byte[] frame;
+
+        Request(Connection connection, byte[] frame) {
+            this.connection = connection;
+            this.frame = frame;
+        }
+
+        @Override
+        public void run() {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            int requestNumber;
+            try {
+                requestNumber = in.readInt();
+            } catch (IOException e) {
+                close(connection);
+                return;
+            }
+            SocketProtocol.FrameWriter response;
+            try {
+                response = new SocketProtocol.FrameWriter(requestNumber, SocketProtocol.OK);
+                execute(in, response);
+            } catch (AccomodationServicesException e) {
+                response = failure(requestNumber, SocketProtocol.outcomeOf(e), e.getMessage());
+            } catch (IOException e) {
+                // The request is cut short, so the client does not speak the protocol
+                close(connection);
+                return;
+            } catch (RuntimeException e) {
+                response = failure(requestNumber, SocketProtocol.FAILED, "Server error: " + e);
+            } catch (Error e) {
+                // Answered all the same, or the client would wait for the response forever
+                connection.respond(failure(requestNumber, SocketProtocol.FAILED, "Server error: " + e).toByteArray());
+                throw e;
+            }
+            connection.respond(response.toByteArray());
+        }
+    }
+
+    private final AccomodationServices services;
+    private final RecordChangeLog changes;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    // Connections with responses to write, whose keys must be set to wait for writing
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    SocketAccomodationServer(DB db, int port, ExecutionMode mode) throws IOException {
+        this.services = new LocalAccomodationProvider(db);
+        this.changes = new RecordChangeLog(db);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            changes.close();
+            throw e;
+        }
+        if (mode == ExecutionMode.VIRTUAL_THREADS) {
+            this.workers = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        } else {
+            final AtomicInteger workerCount = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SocketAccomodationServer worker " + workerCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        this.selectorThread = new Thread(this, "SocketAccomodationServer " + port);
+    }
+
+    /**
+     * Starts a server for the given database, listening on the given port, with a pool of workers.
+     *
+     * @return The server, to stop it with.
+     */
+    public static SocketAccomodationServer startServer(DB db, int port) throws IOException {
+        return startServer(db, port, ExecutionMode.WORKER_POOL);
+    }
+
+    /**
+     * Starts a server for the given database, listening on the given port.
+     *
+     * @return The server, to stop it with.
+     * @throws IllegalArgumentException When the mode is VIRTUAL_THREADS and the Java runtime has none.
+     */
+    public static SocketAccomodationServer startServer(DB db, int port, ExecutionMode mode) throws IOException {
+        if (mode == ExecutionMode.VIRTUAL_THREADS && !VirtualThreads.isAvailable()) {
+            // Not a platform thread per request instead: requests waiting for locks would pile up threads
+            throw new IllegalArgumentException("Virtual threads are not available in this Java runtime; "
+                    + "use " + ExecutionMode.WORKER_POOL + ".");
+        }
+        SocketAccomodationServer server = new SocketAccomodationServer(db, port, mode);
+        server.selectorThread.start();
+        System.out.println("Server ready on port " + port + ".");
+        return server;
+    }
+
+    /**
+     * Stops accepting calls and closes all the connections. The database stays open.
+     */
+    public void stopServer() {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        changes.close();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Connection connection;
+                while ((connection = pendingWrites.poll()) != null) {
+                    if (connection.key.isValid()) {
+                        connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection)key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        close(connection);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("SocketAccomodationServer stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        // Responses are written whole; there is nothing to gain from delaying them
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Reads what the channel has and hands each complete request over to the workers.
+     */
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.input) < 0) {
+            close(connection);
+            return;
+        }
+        ByteBuffer input = connection.input;
+        input.flip();
+        while (input.remaining() >= 4) {
+            int length = input.getInt(input.position());
+            if (length < 4 || length > SocketProtocol.MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (input.remaining() < 4 + length) {
+                break;
+            }
+            input.getInt();
+            byte[] frame = new byte[length];
+            input.get(frame);
+            workers.execute(new Request(connection, frame));
+        }
+        input.compact();
+        if (!input.hasRemaining()) {
+            // A request larger than the buffer
+            ByteBuffer larger = ByteBuffer.allocate(2 * input.capacity());
+            input.flip();
+            larger.put(input);
+            connection.input = larger;
+        }
+    }
+
+    /**
+     * Writes the queued responses, as far as the channel takes them.
+     */
+    private void write(Connection connection) throws IOException {
+        ByteBuffer response;
+        while ((response = connection.output.peek()) != null) {
+            connection.channel.write(response);
+            if (response.hasRemaining()) {
+                return;
+            }
+            connection.output.poll();
+        }
+        // A response queued meanwhile is in pendingWrites, and sets the key again
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void close(Connection connection) {
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    private static SocketProtocol.FrameWriter failure(int requestNumber, byte outcome, String message) {
+        SocketProtocol.FrameWriter response = new SocketProtocol.FrameWriter(requestNumber, outcome);
+        try {
+            Accomodation.writeString(response, message);
+        } catch (IOException e) {
+            // Cannot happen when writing to memory
+        }
+        return response;
+    }
+
+    /**
+     * Reads the operation of a request and its values, runs it and writes its result to the response.
+     */
+    private void execute(DataInput in, DataOutput response) throws IOException, AccomodationServicesException {
+        byte operation = in.readByte();
+        if (operation == SocketProtocol.SEARCH) {
+            String name = Accomodation.readString(in);
+            String location = Accomodation.readString(in);
+            long knownChange = in.readLong();
+            // Taken before reading, so that the values include all the changes up to it
+            long changeNumber = changes.getLastChange();
+            changes.versioned(knownChange, changeNumber,
+                services.searchAccomodations(new AccomodationSearchCriteria(name, location))).writeTo(response);
+        } else if (operation == SocketProtocol.SEARCH_PAGE) {
+            String name = Accomodation.readString(in);
+            String location = Accomodation.readString(in);
+            int pageSize = in.readInt();
+            String pageToken = Accomodation.readString(in);
+            services.searchAccomodations(new AccomodationSearchCriteria(name, location), pageSize, pageToken)
+                .writeTo(response);
+        } else if (operation == SocketProtocol.READ) {
+            int recordNumber = in.readInt();
+            long knownChange = in.readLong();
+            long changeNumber = changes.getLastChange();
+            changes.versioned(knownChange, changeNumber,
+                Collections.singletonList(services.getAccomodation(recordNumber))).writeTo(response);
+        } else if (operation == SocketProtocol.BOOK) {
+            int recordNumber = in.readInt();
+            services.bookAccomodation(recordNumber, Accomodation.readString(in)).writeTo(response);
+        } else if (operation == SocketProtocol.UPDATE_MANY) {
+            int count = in.readInt();
+            Map<Integer, Accomodation> accomodations = new HashMap<Integer, Accomodation>();
+            for (int i = 0; i < count; i++) {
+                int recordNumber = in.readInt();
+                accomodations.put(recordNumber, readAccomodation(in));
+            }
+            services.updateAccomodations(accomodations);
+        } else if (operation == SocketProtocol.ADD) {
+            response.writeInt(services.addAccomodation(readAccomodation(in)));
+        } else if (operation == SocketProtocol.DELETE) {
+            services.deleteAccomodation(in.readInt());
+        } else if (operation == SocketProtocol.UPDATE) {
+            int recordNumber = in.readInt();
+            services.updateAccomodation(recordNumber, readAccomodation(in));
+        } else {
+            throw new AccomodationServicesException("Unknown operation " + operation);
+        }
+    }
+
+    private static Accomodation readAccomodation(DataInput in) throws IOException {
+        Accomodation accomodation = new Accomodation();
+        accomodation.readFrom(in);
+        return accomodation;
+    }
+}
@@ -0,0 +1,101 @@
+package suncertify.business;
+
+import java.io.*;
+
+/**
+ * The messages exchanged by SocketAccomodationClient and SocketAccomodationServer.
+ *
+ * Every message is a frame: its length as an int, then the number of the request, then a code, then
+ * the values. In a request the code is the operation, in a response it is the outcome. Responses carry
+ * the number of their request, so the server can answer the requests of a connection in any order
+ * and the client can send a request without waiting for the answers to the previous ones.
+ *
+ * Values are written with DataOutput: numbers as they are, strings and accomodations in the compact
+ * format of Accomodation, lists of accomodations as in AccomodationList.
+ *
+ * Requests:                                     Response values when OK:
+ *  SEARCH   name, location, known change         the accomodations found, versioned
+ *  SEARCH_PAGE name, location, page size,      the page, as AccomodationPage writes it
+ *           page token
+ *  READ     record number, known change          the accomodation, versioned
+ *  BOOK     record number, customer id           the accomodation as booked
+ *  UPDATE_MANY count, (record number, accomodation) for each
+ *  ADD      accomodation                         its record number
+ *  DELETE   record number
+ *  UPDATE   record number, accomodation
+ * Any other outcome is followed by the message of the exception. Versioned accomodations are
+ * written as VersionedAccomodations does.
+ */
+class SocketProtocol {
+
+    // Operations
+    static final byte SEARCH = 1;
+    static final byte BOOK = 2;
+    static final byte UPDATE_MANY = 3;
+    static final byte ADD = 4;
+    static final byte DELETE = 5;
+    static final byte UPDATE = 6;
+    static final byte READ = 7;
+    static final byte SEARCH_PAGE = 8;
+
+    // Outcomes
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+    static final byte NOT_FOUND = 2;
+    static final byte ALREADY_BOOKED = 3;
+
+    // Larger frames are taken for garbage and close the connection
+    static final int MAX_FRAME_LENGTH = 1 << 24;
+
+    /**
+     * A frame being written. Its length is filled in by toByteArray().
+     */
+    static class FrameWriter extends DataOutputStream {
+        FrameWriter(int requestNumber, byte code) {
+            super(new ByteArrayOutputStream(64));
+            try {
+                writeInt(0);
+                writeInt(requestNumber);
+                writeByte(code);
+            } catch (IOException e) {
+                // Cannot happen when writing to memory
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] frame = ((ByteArrayOutputStream)out).toByteArray();
+            int length = frame.length - 4;
+            frame[0] = (byte)(length >>> 24);
+            frame[1] = (byte)(length >>> 16);
+            frame[2] = (byte)(length >>> 8);
+            frame[3] = (byte)length;
+            return frame;
+        }
+    }
+
+    /**
+     * Returns the outcome that stands for the exception in a response.
+     */
+    static byte outcomeOf(AccomodationServicesException e) {
+        if (e instanceof AccomodationNotFoundException) {
+            return NOT_FOUND;
+        } else if (e instanceof AccomodationAlreadyBookedException) {
+            return ALREADY_BOOKED;
+        }
+        return FAILED;
+    }
+
+    /**
+     * Returns the exception that a response with the given outcome stands for.
+     */
+    static AccomodationServicesException exceptionOf(byte outcome, String message) {
+        switch (outcome) {
+        case NOT_FOUND:
+            return new AccomodationNotFoundException(message);
+        case ALREADY_BOOKED:
+            return new AccomodationAlreadyBookedException(message);
+        default:
+            return new AccomodationServicesException(message);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package suncertify.business;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Accomodations read by the server, along with what a client needs to keep its copies of
+ * accomodations up to date: the number of the last change made before they were read, and the
+ * records changed since the last change the client knew of.
+ */
+public class VersionedAccomodations implements Externalizable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 4930571842290532265L;
+
+    // Not final, as they are read after construction when deserialized.
+    private long changeNumber;
+    // Null when the server does not know which records changed, so that any copy may be out of date
+    private int[] changedRecords;
+    private List<Accomodation> accomodations;
+
+    /**
+     * Only for deserialization.
+     */
+    public VersionedAccomodations() {
+        this(0, null, Collections.<Accomodation>emptyList());
+    }
+
+    VersionedAccomodations(long changeNumber, int[] changedRecords, List<Accomodation> accomodations) {
+        this.changeNumber = changeNumber;
+        this.changedRecords = changedRecords;
+        this.accomodations = accomodations;
+    }
+
+    long getChangeNumber() { return changeNumber; }
+    int[] getChangedRecords() { return changedRecords; }
+    List<Accomodation> getAccomodations() { return accomodations; }
+
+    /**
+     * Writes the change number, the number of changed records (-1 for null) and their numbers,
+     * then the accomodations as AccomodationList does.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(changeNumber);
+        if (changedRecords == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(changedRecords.length);
+            for (int recNo : changedRecords) {
+                out.writeInt(recNo);
+            }
+        }
+        AccomodationList.writeAll(out, accomodations);
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        changeNumber = in.readLong();
+        int count = in.readInt();
+        if (count < 0) {
+            changedRecords = null;
+        } else {
+            changedRecords = new int[count];
+            for (int i = 0; i < count; i++) {
+                changedRecords[i] = in.readInt();
+            }
+        }
+        accomodations = AccomodationList.readAll(in);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+}
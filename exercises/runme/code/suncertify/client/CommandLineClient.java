@@ -1,10 +1,14 @@
 package suncertify.client;
 
+import suncertify.business.*;
 import suncertify.db.*;
 import suncertify.db.SecurityException;
 
 public class CommandLineClient {
 
+    // The number of accomodations listed at a time
+    private static final int PAGE_SIZE = 10;
+
     private static class RandomUpdater implements Runnable {
         private Data db;
         
@@ -51,25 +55,60 @@ public class CommandLineClient {
         }
     }
     
+    /**
+     * Lists all accomodations a page at a time, the way a client showing search results would:
+     * each page is searched for only when the previous one has been shown.
+     */
+    private static void listAccomodations(AccomodationServices services) throws AccomodationServicesException {
+        AccomodationSearchCriteria all = new AccomodationSearchCriteria(null, null);
+        String pageToken = null;
+        int page = 0;
+        do {
+            AccomodationPage found = services.searchAccomodations(all, PAGE_SIZE, pageToken);
+            if (found.getAccomodations().isEmpty()) {
+                break;
+            }
+            System.out.println("Page " + (++page) + ":");
+            for (Accomodation accomodation : found.getAccomodations()) {
+                System.out.println("  " + accomodation);
+            }
+            pageToken = found.getNextPageToken();
+        } while (pageToken != null);
+    }
+    
     /**
      * @param args
      */
     public static void main(String[] args) {
         if (args.length < 1) {
             System.out.println("Please provide the database path.");
+            System.out.println("Add \"mapped\" after the path to map the database file in memory,");
+            System.out.println("or \"offheap\" to keep the records outside of the heap.");
             return;
         }
         
         try {
-            Data db = new Data(args[0]);
+            Data.StorageMode storageMode = Data.StorageMode.HEAP;
+            if (args.length > 1 && args[1].equals("mapped")) {
+                storageMode = Data.StorageMode.MEMORY_MAPPED;
+            } else if (args.length > 1 && args[1].equals("offheap")) {
+                storageMode = Data.StorageMode.OFF_HEAP;
+            }
+            Data db = new Data(args[0], storageMode, new FlushSettings());
             db.printDataCache();
+            listAccomodations(new LocalAccomodationProvider(db));
             // Start the random updater
             Thread ru = new Thread(new RandomUpdater(db));
             ru.start();
             ru.join();
             db.printDataCache();
+            System.out.println(db.getFlushStatistics());
+            System.out.println(db.getLockStatistics());
+            db.close();
         } catch (DatabaseRuntimeException e) {
             e.printStackTrace();
+        } catch (AccomodationServicesException e) {
+            e.printStackTrace();
         } catch (InterruptedException e) {
             //
         }
@@ -0,0 +1,38 @@
+package suncertify.db;
+
+import java.util.Map;
+
+/**
+ * Extends the DB interface with operations on several records at once, so that a client working
+ * on a list of records pays the cost of a call (and, remotely, of a round trip) once per list
+ * instead of once per record.
+ */
+public interface BatchDB extends DB {
+    // Reads several records. Returns one array of values per record number,
+    // in the order of the given record numbers; the array is null for the
+    // records that do not exist or are deleted.
+    public String[][] readMany(int[] recNos);
+
+    // Locks several records. The records are locked in ascending order of their
+    // numbers, so that two clients locking overlapping sets cannot deadlock.
+    // Returns the cookie of each record, by record number. If one of the records
+    // does not exist, the records locked so far are unlocked and
+    // RecordNotFoundException is thrown.
+    public Map<Integer, Long> lockMany(int[] recNos)
+        throws RecordNotFoundException;
+
+    // Modifies several records. data maps each record number to its new values
+    // and lockCookies maps it to the cookie it is locked with. All records are
+    // checked before any is changed: if one does not exist, RecordNotFoundException
+    // is thrown, if one is not locked with its cookie, SecurityException is thrown,
+    // and if the new values of one would duplicate a unique key, DuplicateKeyException
+    // is thrown, in all cases without any change. The changes are made durable together.
+    public void updateMany(Map<Integer, String[]> data, Map<Integer, Long> lockCookies)
+        throws RecordNotFoundException, SecurityException, DuplicateKeyException;
+
+    // Releases the locks on several records; lockCookies maps each record number
+    // to the cookie returned when it was locked. All records are unlocked even if
+    // some of them fail; the first failure is thrown afterwards.
+    public void unlockMany(Map<Integer, Long> lockCookies)
+        throws RecordNotFoundException, SecurityException;
+}
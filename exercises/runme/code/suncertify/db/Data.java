@@ -5,559 +5,1307 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import suncertify.util.*;
 
-class DatabaseFieldDefinition {
-    protected final String fieldName;
-    protected final int fieldLength;
+/**
+ * The database wrapper class.
+ * Records are cached in memory in their entirety.
+ * Records are not physically deleted; they are only flagged as such and reused as new records are added.
+ * 
+ * Choice:
+ * The deletion flag is part of the database schema that thus allows for persisting deleted records in the database file.
+ * This allows for easier updates to the database file because only changed records can be updated (relatively small chunks
+ * of date written). On the other hand it never allows the database file to shrink. For the task at hand this will not become
+ * a problem and if it does, a special maintenance operation might be added later to compact the database by rewriting it
+ * and skipping deleted records.
+ * 
+ * Record numbers:
+ *  - are generated as new records are added; this might create problems for very long run sessions
+ *    but such usage is not envisioned 
+ *  - are stored in the cache along with the records; the index of the record in the cache list is not suitable
+ *    to be used as record number, especially in multithreaded environments where one thread may hold a record number
+ *    and another may change the record list order by deleting records, rendering the record number useless or invalid  
+ *  - are not reused during a run session of the application, except when the file is memory mapped
+ *  - are not persisted in the database file (since the schema does not provide for this)
+ *  - are re-generated in a new session, as the database is loaded into the cache upon startup
+ * When the database file is memory mapped (StorageMode.MEMORY_MAPPED), the record number is the slot of the
+ * record in the file instead: it stays the same from one session to the next, and the number of a deleted
+ * record is given to a new record once the deleted record is unlocked, like its slot.
+ * 
+ * Each instance is a database of its own, with its cache, locks and synchronizer, so one process
+ * can serve several database files. A file must only be opened by one instance at a time; open()
+ * shares the instance that already has a file open instead of opening it again.
+ */
+public class Data implements BatchDB {
     
-    DatabaseFieldDefinition(String name, int length) {
-        assert(length > 0);        
-        this.fieldName = name; 
-        this.fieldLength = length; 
+    /**
+     * Where the records of the database are kept while it is open.
+     */
+    public enum StorageMode {
+        /** The records are read in byte slices of large arrays on the heap. */
+        HEAP,
+        /** The records are read in byte slices of direct buffers, outside of the heap. */
+        OFF_HEAP,
+        /** The database file is mapped in memory; the records are only read when they are accessed. */
+        MEMORY_MAPPED
     }
     
-    String getFieldName() { 
-        return this.fieldName; 
-    }
+    // Memory Cache
+    // Records are stored as byte slices, by slot, in the order in which they are read from the file or appended
+    // from the UI, and their slot never changes, to allow selective writing to the database of only the updated records
+    private RecordStore store = null;
+    private boolean memoryMapped = false;
+    // Record numbers and slots, in both directions; only used when the database is not memory mapped.
+    // When it is, the record number is the slot of the record in the file.
+    private volatile RecordDirectory slotByRecordNumber = new RecordDirectory(0, 0, false);
+    // Its length may exceed the number of records, to leave room for new records
+    private volatile int[] recordNumberBySlot = new int[0];
     
-    int getFieldLength() { 
-        return this.fieldLength;
-    }
+    // When the database is cached in memory, the database file stays open for positional writes
+    // of the records that changed; their slots are kept in the dirty set until they are written
+    private RandomAccessFile dataFile = null;
+    private final DirtyRecordSet dirtyRecords = new DirtyRecordSet();
     
-    /**
-     * Reads a field definition (name and length) from the database file using the provided DataInput stream
-     * and checks if it matches the expected definition of the field.
-     * 
-     * @param di The DataInput stream from which to read the field definition.
-     */
-    void readAndCheckFieldDefinition(DataInput di) {
-        try {
-            byte fnl = di.readByte();
+    // Indexes on the field values, used by find(). When the database is memory mapped, they are
+    // only built the first time find() is called, to keep the startup time independent of the file size.
+    private RecordIndexes indexes = null;
+    private final Object indexesLock = new Object();
+    
+    // Unique key enforced on create and update, if one is set
+    private volatile UniqueKeyIndex uniqueKey = null;
     
-            byte[] b = new byte[fnl];
-            di.readFully(b);
-            String fn = new String(b);
-            if (!fn.toLowerCase().equals(fieldName)) {
-                throw new DatabaseRuntimeException("Field name mismatch. " + 
-                        "Expected \"" + fieldName + "\" encountered \"" + fn + "\"");
+    
+    // Database path used to write the records back to the file when the application finishes
+    private String dbPath = null;
+    // Key of the database in the registry of open databases
+    private final String canonicalPath;
+    
+    private volatile SearchMode searchMode = SearchMode.INDEXED;
+    
+    // Changes are made durable in the write-ahead log and reach the database file when the
+    // cache synchronizer runs a checkpoint
+    private WriteAheadLog log = null;
+    private CacheSynchronizer synchronizer = null;
+    private Thread synchronizerThread = null;
+    private Thread shutdownHook = null;
+    // Changes are logged before they are written to the store; a change holds the read lock from its
+    // log entry to its index update, and a checkpoint takes the write lock to rotate the log, as does
+    // the lazy build of the indexes
+    private final ReentrantReadWriteLock changeLock = new ReentrantReadWriteLock();
+    // Set while the last checkpoint has not written its changes to the database file, so that the
+    // next one tries again even without new changes and the log is not discarded meanwhile
+    private volatile boolean checkpointFailed = false;
+    // Changes of a previous session applied from the log when the database was opened
+    private int recoveredChanges = 0;
+    
+    // This class is meant to be run by a separate thread and it takes care of periodically
+    // writing the database cache to the database file. When the thread is stopped, the cache
+    // is written to the file for one last time, to allow last pending changes to be written.
+    // It also keeps writers from getting too far ahead of it (back-pressure).
+    private class CacheSynchronizer implements Runnable {
+        private final FlushSettings settings;
+        private boolean stopped = false;
+        private boolean flushRequested = false;
+        private long lastFlushTime = System.currentTimeMillis();
+        
+        // Changes not yet written to the database file and the time the oldest of them was made
+        private int backlog = 0;
+        private long oldestChangeTime = 0;
+        
+        // Statistics
+        private long flushCount = 0;
+        private long lastFlushLatency = 0;
+        private long maxFlushLatency = 0;
+        private long totalFlushLatency = 0;
+        private int peakBacklog = 0;
+        private long throttledWrites = 0;
+        private long failedFlushes = 0;
+        // Why the last flush failed, or null if it did not
+        private DatabaseRuntimeException lastFailure = null;
+        
+        CacheSynchronizer(FlushSettings settings) {
+            this.settings = settings;
+        }
+        
+        // The thread is woken up through notify() rather than interrupt(),
+        // because interrupting a thread that does I/O on a channel closes the channel
+        synchronized void stop() {
+            stopped = true;
+            this.notifyAll();
+        }
+        
+        /**
+         * Called by writers before making a change. When the backlog has reached the back-pressure threshold,
+         * the writer is made to wait until the pending changes are written to the database file.
+         */
+        synchronized void throttle() {
+            if (backlog < settings.getBackPressureThreshold()) {
+                return;
+            }
+            throttledWrites++;
+            flushRequested = true;
+            this.notifyAll();
+            while (backlog >= settings.getBackPressureThreshold() && !stopped) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    // do nothing
+                }
+            }
+        }
+        
+        /**
+         * Called by writers after a change is logged.
+         */
+        synchronized void changed() {
+            changed(1);
+        }
+        
+        /**
+         * Called by writers after a number of changes are logged together.
+         */
+        synchronized void changed(int changes) {
+            if (backlog == 0) {
+                oldestChangeTime = System.currentTimeMillis();
+            }
+            backlog += changes;
+            if (backlog > peakBacklog) {
+                peakBacklog = backlog;
+            }
+            if (backlog >= settings.getMaxDirtyRecords()) {
+                flushRequested = true;
+                this.notifyAll();
+            }
+        }
+        
+        synchronized FlushStatistics getStatistics() {
+            return new FlushStatistics(flushCount, lastFlushLatency, maxFlushLatency, totalFlushLatency,
+                    backlog, peakBacklog, throttledWrites, failedFlushes, recoveredChanges);
+        }
+        
+        synchronized DatabaseRuntimeException getLastFailure() {
+            return lastFailure;
+        }
+        
+        /**
+         * Returns how long to wait before the next flush is due, or 0 if it is due now.
+         */
+        private long getTimeToNextFlush() {
+            if (flushRequested) {
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            long wait = lastFlushTime + settings.getFlushInterval() - now;
+            if (backlog > 0) {
+                wait = Math.min(wait, oldestChangeTime + settings.getMaxDirtyAge() - now);
+            }
+            return Math.max(wait, 0);
+        }
+        
+        private void flush() {
+            int flushed;
+            synchronized (this) {
+                flushed = backlog;
+                flushRequested = false;
             }
             
-            byte fl = di.readByte();
+            long start = System.nanoTime();
+            try {
+                checkpoint();
+            } catch (DatabaseRuntimeException e) {
+                // The changes stay in the log; the next flush tries again, once they are due again,
+                // and close() reports the failure if the last one fails too
+                synchronized (this) {
+                    failedFlushes++;
+                    lastFailure = e;
+                    lastFlushTime = System.currentTimeMillis();
+                    oldestChangeTime = lastFlushTime;
+                }
+                return;
+            }
+            long latency = (System.nanoTime() - start) / 1000;
             
-            if (fl != fieldLength) {
-                throw new DatabaseRuntimeException("Field length mismatch for field " + fieldName + ". " 
-                        + "Expected " + fieldLength + " found " + fl);
+            synchronized (this) {
+                lastFailure = null;
+                lastFlushTime = System.currentTimeMillis();
+                // Changes made while flushing are counted for the next flush
+                backlog -= flushed;
+                if (backlog > 0) {
+                    oldestChangeTime = lastFlushTime;
+                }
+                if (flushed > 0) {
+                    flushCount++;
+                    lastFlushLatency = latency;
+                    totalFlushLatency += latency;
+                    maxFlushLatency = Math.max(maxFlushLatency, latency);
+                }
+                this.notifyAll();
             }
-        } catch (EOFException e) {
-            throw new DatabaseRuntimeException("End of file encountered while reading schema.");
-        } catch (IOException e) {
-            throw new DatabaseRuntimeException("IO Exception while reading schema.");
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    long wait = getTimeToNextFlush();
+                    while (!stopped && wait > 0) {
+                        try {
+                            this.wait(wait);
+                        } catch (InterruptedException e) {
+                            // do nothing
+                        }
+                        wait = getTimeToNextFlush();
+                    }
+                    if (stopped) {
+                        break;
+                    }
+                }
+                flush();
+            }
+            // Last run
+            flush();
         }
     }
     
+    private final AutoIncrementNumberGenerator recordNumberGenerator 
+        = new AutoIncrementNumberGenerator();
+
+    // Locks on the records, by record number
+    private final RecordLockManager lockManager = new RecordLockManager();
+    
+    private final LockCookieGenerator lockCookieGenerator 
+        = new LockCookieGenerator();
+    
+    // Told about each record changed; rarely changed, read on every change
+    private final List<RecordChangeListener> changeListeners = new CopyOnWriteArrayList<RecordChangeListener>();
+    
+    // Slots of the deleted records, reused first when records are created. When the database is
+    // memory mapped, it is only built the first time a record is created or deleted.
+    private FreeListAllocator slotAllocator = null;
+    private final Object slotAllocatorLock = new Object();
+    // Slots of the deleted records that may still be locked; they go to the free list once
+    // their record is unlocked, so that a new record never gets a record number that is locked
+    private final List<Integer> deletedSlots = new ArrayList<Integer>();
+    // Held while a slot is allocated for a new record and logged, so that records
+    // appended at the end of the file are logged in the order of their slots
+    private final Object createLock = new Object();
+    
+    // Open databases by canonical path of their file. The future of a database is done once it is open;
+    // while the database is being opened or closed it is not, and open() waits for it without holding
+    // the map, so that reading or writing one file does not hold up the other databases.
+    // Also locks the number of times each database was opened.
+    private static final Map<String, CompletableFuture<Data>> openDatabases
+        = new HashMap<String, CompletableFuture<Data>>();
+    // Guarded by openDatabases
+    private int openCount = 0;
+    
     /**
-     * Gets a raw value, trims leading and trailing whitespace and truncates it to the fieldLength.  
+     * Returns the database of the given file, opening it if no instance has it open yet.
+     * Each call must be matched by a call to close(); the file is closed by the last one.
+     * When the file is already open, it is shared as it is, whatever the given storage mode and settings.
      * 
-     * @param value The raw value
-     * @return The trimmed value
-     */
-    String fitValue(String value) {
-        try {        
-            // Trim spaces and truncate excess characters
-            if (value.length() > fieldLength) value = value.substring(0, fieldLength);
-            return value.trim();
-        } catch (NullPointerException e) {
-            return null;
+     * @param dbPath The path of the database file.
+     * @param storageMode Where the records are kept if the database is opened.
+     * @param flushSettings Settings of the background synchronizer if the database is opened.
+     * @throws DatabaseRuntimeException When the file cannot be opened or its schema is not the expected one.
+     */
+    public static Data open(String dbPath, StorageMode storageMode, FlushSettings flushSettings)
+            throws DatabaseRuntimeException {
+        String canonicalPath = getCanonicalPath(dbPath);
+        while (true) {
+            CompletableFuture<Data> pending;
+            synchronized (openDatabases) {
+                pending = openDatabases.get(canonicalPath);
+                if (pending == null) {
+                    // Registered before the file is read, so that the other callers wait for this one
+                    openDatabases.put(canonicalPath, new CompletableFuture<Data>());
+                    break;
+                }
+                Data db = pending.getNow(null);
+                if (db != null) {
+                    db.openCount++;
+                    return db;
+                }
+            }
+            // Being opened or closed by another thread; done with null when the file is released
+            pending.join();
         }
+        return new Data(dbPath, storageMode, flushSettings, canonicalPath, true);
     }
     
-    /**
-     * Reads the value of the field from the database file through the provided DataInput stream.
-     * It reads exactly the amount of bytes corresponding to the field's length.
-     * The return value is trimmed and fitted using fitValue().
-     * 
-     * @param di The DataInput stream to read the value from.
-     * @return The fit-and-trim value for the field.
-     */
-    String readFieldValue(DataInput di) throws DatabaseRuntimeException {
+    private static String getCanonicalPath(String dbPath) throws DatabaseRuntimeException {
         try {
-            byte[] b = new byte[fieldLength];
-            di.readFully(b);
-            return fitValue(new String(b));
-        } catch (EOFException e) {
-            throw new DatabaseRuntimeException("EOF encountered while reading value for field " + fieldName);
+            return new File(dbPath).getCanonicalPath();
         } catch (IOException e) {
-            throw new DatabaseRuntimeException("IO exception encountered while reading value for field " + fieldName);
+            throw new DatabaseRuntimeException("Invalid database path " + dbPath);
         }
     }
     
+    public Data(String dbPath) throws DatabaseRuntimeException {
+        this(dbPath, false);
+    }
+    
+    /**
+     * Opens the database file.
+     * 
+     * @param dbPath The path of the database file.
+     * @param memoryMapped When true, the file is mapped in memory and records are read directly from the
+     * mapped region instead of being loaded in the memory cache. Startup time and heap usage then no longer
+     * depend on the number of records in the file.
+     * @throws DatabaseRuntimeException When the file cannot be opened or its schema is not the expected one.
+     */
+    public Data(String dbPath, boolean memoryMapped) throws DatabaseRuntimeException {
+        this(dbPath, memoryMapped, new FlushSettings());
+    }
+    
     /**
-     * Writes the provided field value to the database file through the provided DataOutput stream.
-     * The amount of bytes written is exactly the field's length. The value is first fitted using 
-     * fitValue() to make sure it fits in the field, then padded with whitespaces at the end to fill
-     * the field's space if necessary. 
+     * Opens the database file.
      * 
-     * Errors that may occur during writing are silently suppressed because the DB interface does not
-     * provide for reporting them. This has the potential of corrupting the database file.
+     * @param dbPath The path of the database file.
+     * @param memoryMapped When true, the file is mapped in memory instead of being loaded in the memory cache.
+     * @param flushSettings Settings of the background synchronizer that writes changes to the database file.
+     * @throws DatabaseRuntimeException When the file cannot be opened or its schema is not the expected one.
+     */
+    public Data(String dbPath, boolean memoryMapped, FlushSettings flushSettings) throws DatabaseRuntimeException {
+        this(dbPath, memoryMapped ? StorageMode.MEMORY_MAPPED : StorageMode.HEAP, flushSettings);
+    }
+    
+    /**
+     * Opens the database file.
      * 
-     * @param dout The DataOutput stream to write the value to.
-     * @param value The value to write. It is padded with whitespaces as necessary.
+     * @param dbPath The path of the database file.
+     * @param storageMode Where the records are kept while the database is open.
+     * @param flushSettings Settings of the background synchronizer that writes changes to the database file.
+     * @throws DatabaseRuntimeException When the file cannot be opened, its schema is not the expected one
+     * or it is already open; use open() to share an open database.
      */
-    void writeFieldValue(DataOutput dout, String value) throws DatabaseRuntimeException {
-        return ;
+    public Data(String dbPath, StorageMode storageMode, FlushSettings flushSettings) throws DatabaseRuntimeException {
+        this(dbPath, storageMode, flushSettings, getCanonicalPath(dbPath), false);
+    }
+    
+    /**
+     * @param registered True when open() has registered the database already, with a future
+     * that is not done yet.
+     */
+    private Data(String dbPath, StorageMode storageMode, FlushSettings flushSettings, String canonicalPath,
+            boolean registered) throws DatabaseRuntimeException {
+        super();
         
-/*        try {
-            dout.writeBytes(fitValue(value););
-            for (short i = 0; i < fieldLength - value.length(); i++)
-            {
-                dout.writeBytes(" ");
+        this.canonicalPath = canonicalPath;
+        CompletableFuture<Data> opening;
+        synchronized (openDatabases) {
+            if (registered) {
+                opening = openDatabases.get(canonicalPath);
+            } else {
+                if (openDatabases.containsKey(canonicalPath)) {
+                    throw new DatabaseRuntimeException("The database " + dbPath + " is already open.");
+                }
+                opening = new CompletableFuture<Data>();
+                openDatabases.put(canonicalPath, opening);
             }
-        } catch (IOException e) {
-            throw new DatabaseRuntimeException("IO exception encountered while writing value for field " + fieldName);
         }
-*/    }
-}
-
-/**
- * 
- * @author racanu
- *
- */
-class DatabaseRecord {
-    //
-    // The following are the static fields and operations.
-    // They deal with the definition of a record (i.e. the schema)
-    //
-    private static final int magicCookie = 259;
-
-    private static final DatabaseFieldDefinition[] fields = {
-        new DatabaseFieldDefinition("name", 64),
-        new DatabaseFieldDefinition("location", 64),
-        new DatabaseFieldDefinition("size", 4),
-        new DatabaseFieldDefinition("smoking", 1),
-        new DatabaseFieldDefinition("rate", 8),
-        new DatabaseFieldDefinition("date", 10),
-        new DatabaseFieldDefinition("owner", 8)
-    };
-    private static final short recordSize;
-    
-    static {
-        short rs = 0;
-        for (short i=0; i<fields.length; i++) {
-            rs += fields[i].getFieldLength();
-        }
-        recordSize = rs;
-    }
-
-    static DatabaseFieldDefinition getFieldDefinition(short index) {
-        if (index < fields.length) {
-            return fields[index];
-        } else {
-            return null;
+  
+        // Reads the given database file and fills the memory cache with its content, possibly throwing a DatabaseException
+        boolean opened = false;
+        try {
+            try {
+                // The log of a previous session that did not close the database properly
+                // contains changes that may not have reached the database file yet
+                recoveredChanges = WriteAheadLog.recover(dbPath);
+                
+                if (storageMode == StorageMode.MEMORY_MAPPED) {
+                    mapData(dbPath);
+                } else {
+                    readData(dbPath, storageMode == StorageMode.OFF_HEAP);
+                }
+                this.dbPath = dbPath;
+                openLog(flushSettings);
+            } catch (Exception e) {
+                closeDataFile();
+                closeStore();
+                throw new DatabaseRuntimeException("Some error occured while reading the database. Check the path and file.");
+            }
+            opened = true;
+        } finally {
+            // The callers of open() waiting for the file go on, with this database or opening it themselves
+            synchronized (openDatabases) {
+                if (opened) {
+                    openCount = 1;
+                } else {
+                    openDatabases.remove(canonicalPath);
+                }
+            }
+            opening.complete(opened ? this : null);
         }
     }
-
-    static short getNumberOfFields() {
-        return (short)fields.length;
-    }
-    
-    static short getRecordSize() {
-        return recordSize;
+  
+    // Reads a record from the file. Returns an array where each
+    // element is a record value
+    @Override
+    public String[] read(int recNo) throws RecordNotFoundException {
+        // Only the requested record is decoded, from its slice
+        return store.readRecordValues(getSlot(recNo));
     }
-    
-    static void skipSchema(DataInput di) throws DatabaseRuntimeException {
-        // This is just a semantic method. 
-        // We could implement an actual skipping (i.e. moving the file pointer) 
-        // but for simplicity's sake we choose to just read the schema.
-        // The assignment allows us to assume that only one process (this one) has access to the database file.
-        // Hence the schema cannot have been changed by an external party. 
-        // To support a scenario in which the schema can be changed by an external party, would require a lot more than the
-        // current assignment targets.
-        readSchema(di);
+
+    // Modifies the fields of a record. The new value for field n
+    // appears in data[n]. Throws SecurityException
+    // if the record is locked with a cookie other than lockCookie.
+    @Override
+    public void update(int recNo, String[] data, long lockCookie)
+            throws RecordNotFoundException, SecurityException {
+        
+        // The record only lives for the time of the update; the store keeps the bytes
+        DatabaseRecord dr = getRecord(recNo);
+        if (dr == null || dr.isRecordDeleted()) {
+            throw new RecordNotFoundException();
+        }
+        if (!lockManager.renew(recNo, lockCookie)) {
+            throw new SecurityException();
+        }
+        String[] oldValues = dr.getRecordValues();
+        dr.setRecordValues(data);
+        // The interface has no checked exception for a duplicate key; the update is rejected
+        // before anything changes, with an unchecked exception like a change that cannot be logged
+        UniqueKeyIndex key = uniqueKey;
+        if (key != null && !key.update(recNo, oldValues, dr.getRecordValues())) {
+            throw new DatabaseRuntimeException("Another record has the key of the new values of record " + recNo);
+        }
+        
+        boolean written = false;
+        try {
+            synchronizer.throttle();
+            // Held from the log entry to the index update, see writeChange() and getIndexes()
+            changeLock.readLock().lock();
+            try {
+                // Only this record is written, in place
+                writeChange(dr);
+                written = true;
+                synchronized (indexesLock) {
+                    if (indexes != null) {
+                        indexes.update(recNo, oldValues, dr.getRecordValues());
+                    }
+                }
+                fireRecordChanged(recNo);
+            } finally {
+                changeLock.readLock().unlock();
+            }
+        } catch (NullPointerException e) {
+            throw new RecordNotFoundException();
+        } finally {
+            // A change that could not be logged leaves the key of the record as it was
+            if (!written && key != null) {
+                key.update(recNo, dr.getRecordValues(), oldValues);
+            }
+        }
     }
     
-    static void readSchema(DataInput di) throws DatabaseRuntimeException {
+    // Deletes a record, making the record number and associated disk
+    // storage available for reuse
+    // Throws SecurityException if the record is locked with a cookie
+    // other than lockCookie.
+    @Override
+    public void delete(int recNo, long lockCookie)
+            throws RecordNotFoundException, SecurityException {
+        
+        DatabaseRecord dr = getRecord(recNo);
+        if (dr == null || dr.isRecordDeleted()) {
+            throw new RecordNotFoundException();
+        }
+        if (!lockManager.renew(recNo, lockCookie)) {
+            throw new SecurityException();
+        }
+        // Built before the record is flagged, so that a lazily built free list does not have its slot yet
+        getSlotAllocator();
+        synchronizer.throttle();
+        String[] oldValues = dr.getRecordValues();
+        dr.setRecordDeleted();
+        // Held from the log entry to the index update, see writeChange() and getIndexes()
+        changeLock.readLock().lock();
         try {
-            int mc = di.readInt();
-            if (mc != magicCookie) { 
-                throw new DatabaseRuntimeException("Incorrect magic cookie. " 
-                        + "Expected " + magicCookie + " encountered " + mc);
+            // Only the flag of the slot changes, in place
+            writeChange(dr);
+            synchronized (indexesLock) {
+                if (indexes != null) {
+                    indexes.remove(recNo, oldValues);
+                }
             }
-            
-            short fpr = di.readShort();
-            if (fpr != fields.length) {
-                throw new DatabaseRuntimeException("Incorrect number of fields per record. " 
-                        + "Expected " + fields.length + "encountered " + fpr);
+            UniqueKeyIndex key = uniqueKey;
+            if (key != null) {
+                key.remove(recNo, oldValues);
             }
-            
-            for (short i = 0; i < fields.length; i++ ) {
-                fields[i].readAndCheckFieldDefinition(di);
+            fireRecordChanged(recNo);
+        } finally {
+            changeLock.readLock().unlock();
+        }
+        // Reusable only once the deletion is durable, so that the log holds the deletion before
+        // the creation of the record that reuses the slot, and once the record is unlocked
+        synchronized (deletedSlots) {
+            deletedSlots.add(dr.getSlot());
+        }
+    }
+        
+    @Override
+    public int[] find(String[] criteria) {
+        // The indexes give the candidates; the values of each candidate are checked against all criteria
+        int[] candidates = null;
+        if (searchMode == SearchMode.INDEXED) {
+            candidates = getIndexes().findCandidates(criteria);
+        }
+        if (candidates == null) {
+            return scan(criteria, searchMode != SearchMode.SEQUENTIAL_SCAN);
+        }
+        // Candidates are checked in place, without copying or decoding their values
+        byte[][] prefixes = RecordStore.encodeCriteria(criteria);
+        int found = 0;
+        for (int recNo : candidates) {
+            int slot = findSlot(recNo);
+            if (slot >= 0 && slot < store.getRecordCount() && store.matches(slot, prefixes)) {
+                candidates[found++] = recNo;
             }
-        } catch (EOFException e) {
-            throw new DatabaseRuntimeException("EOF encountered while reading schema from database file.");
-        } catch (IOException e) {
-            throw new DatabaseRuntimeException("IO exception encountered while reading schema from database file.");
         }
+        return Arrays.copyOf(candidates, found);
     }
     
     /**
-     * Reads a record from the database file using the provided DataInput stream.
+     * Opens a cursor on the records matching the criteria, which finds them one at a time as they are asked for.
+     * The criteria have the same meaning as for find(). The cursor does not use the indexes, whatever the
+     * search mode: they can only tell the candidates all at once, which is what the cursor is meant to avoid.
      * 
-     * @param di
-     * @return
-     * @throws DatabaseRuntimeException
+     * @param limit The maximum number of records the cursor returns; 0 for no limit.
+     * @param pageToken The token of the cursor of the previous page, or null to start with the first record.
+     * @throws IllegalArgumentException When the page token is not one returned by a cursor.
      */
-    static DatabaseRecord readRecord(DataInput di) throws DatabaseRuntimeException {
-        DatabaseRecord dr = new DatabaseRecord();
-        dr.read(di);
-        return dr;
-    }    
+    public FindCursor openCursor(String[] criteria, int limit, String pageToken) {
+        return new FindCursor(store, memoryMapped ? null : recordNumberBySlot, criteria, limit, pageToken);
+    }
     
     /**
-     * Skips a record by moving the file pointer forward a number of bytes equals to the size of the record.
-     * 
-     * @param di
-     * @return
-     * @throws DatabaseRuntimeException
+     * Registers a listener to be told about every record created, updated or deleted from now on.
      */
-    static void skipRecord(DataInput di) throws DatabaseRuntimeException{
-        try {
-            di.skipBytes(DatabaseRecord.getRecordSize());
-        } catch (IOException e) {
-            throw new DatabaseRuntimeException("IO exception while skipping record.");
-        }
-    }
-    
-    //
-    // The following are instance related fields and operations
-    //
-    private boolean locked = false;
-    private long lockCookie = 0;
-    private boolean dirty = true;
-    private byte flag;
-    private final String[] values = new String[fields.length];
-    
-    void setRecordDirty() { this.dirty = true; }
-    boolean isRecordDirty() { return this.dirty == true; }
-    void setRecordClean() { this.dirty = false; }
-    boolean isRecordClean() { return this.dirty == false; }
-    void setRecordValid() { this.flag = 0; }
-    boolean isRecordValid() { return this.flag == 0; }
-    void setRecordDeleted() { this.flag = (byte)0xFF; }
-    boolean isRecordDeleted() { return this.flag == (byte)0xFF; }
-
+    public void addRecordChangeListener(RecordChangeListener listener) {
+        changeListeners.add(listener);
+    }
+    
+    public void removeRecordChangeListener(RecordChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+    
+    private void fireRecordChanged(int recNo) {
+        for (RecordChangeListener listener : changeListeners) {
+            listener.recordChanged(recNo);
+        }
+    }
+    
+    /**
+     * Sets the way find() looks for matching records.
+     */
+    public void setSearchMode(SearchMode searchMode) {
+        this.searchMode = searchMode;
+    }
+    
     /**
-     * Locks the record for exclusive access by the holder of the given cookie.
-     * All subsequent operations on this record must provide this cookie.
-     * The record can only be locked by one entity at a time. So only one cookie is active at any time.
-     * When attempting to lock an already locked record, the thread will be put to sleep.
+     * Checks all records against the criteria, comparing them to the bytes of the fields in the store.
+     * The values are neither copied nor decoded.
      * 
-     * @param cookie The value that allows the holder of it to access the record while it is locked.
+     * @param parallel When true, ranges of records are checked in parallel.
+     * @return The numbers of the matching records, in ascending order.
+     */
+    private int[] scan(String[] criteria, boolean parallel) {
+        final byte[][] prefixes = RecordStore.encodeCriteria(criteria);
+        final RecordStore records = store;
+        // The record number is the slot when the database is memory mapped
+        final int[] recordNumbers = memoryMapped ? null : recordNumberBySlot;
+        int slotCount = (recordNumbers == null) ? records.getRecordCount() 
+                : Math.min(records.getRecordCount(), recordNumbers.length);
+        ParallelScanner.SlotMatcher matcher = new ParallelScanner.SlotMatcher() {
+            @Override
+            public int match(int slot) {
+                if (!records.matches(slot, prefixes)) {
+                    return -1;
+                }
+                return (recordNumbers == null) ? slot : recordNumbers[slot];
+            }
+        };
+        return parallel ? ParallelScanner.scanParallel(slotCount, matcher) 
+                : ParallelScanner.scanSequential(slotCount, matcher);
+    }
+    
+    /**
+     * Returns the indexes on the field values, building them first if the database is memory mapped
+     * and they were not built yet.
      */
-    synchronized void lock(long cookie) {
+    private RecordIndexes getIndexes() {
+        synchronized (indexesLock) {
+            if (indexes != null) {
+                return indexes;
+            }
+        }
+        // Built while no change is between its write to the store and its index update, or
+        // the indexes could be built from the old values and miss the update for good
+        changeLock.writeLock().lock();
         try {
-            //TODO: while ???
-            if (this.locked && this.lockCookie != cookie) {
-                // Block thread
-                this.wait();
+            synchronized (indexesLock) {
+                if (indexes == null) {
+                    indexes = buildIndexes();
+                }
+                return indexes;
             }
-            this.locked = true;
-            this.lockCookie = cookie;
-        } catch (InterruptedException e) {
-            //
+        } finally {
+            changeLock.writeLock().unlock();
         }
     }
     
     /**
-     * Unlocks a previously locked record, releasing it for changes.
-     * To unlock the record, the owner of it must provide the cookie it used when locking it.
-     * 
-     * @param cookie The cookie that was used to lock the record.
-     * @throws SecurityException When attempting to unlock a record that is not locked 
-     * or using a cookie other than the one used for locking it.
+     * Indexes the records in the store. Deleted records are not indexed.
      */
-    synchronized void unlock(long cookie) throws SecurityException { 
-        if (!this.locked || this.lockCookie != cookie)
-            throw new SecurityException();
-        this.locked = false;
-        this.notifyAll();
-    } 
+    private RecordIndexes buildIndexes() {
+        return RecordIndexes.build(store, memoryMapped ? null : recordNumberBySlot);
+    }
 
     /**
-     * Takes a list of values in the form of an array of String and updates the fields
-     * of the record with them. Leading and trailing spaces are trimmed off. Values that
-     * are too long to fit in the corresponding field are silently truncated.
+     * Makes the values of the given fields a unique key: from now on, creating or updating a record
+     * fails when another record has the same values in all of these fields. The key is checked with a
+     * hash index, built from the records in the database; it should be set before the database is used.
      * 
-     * @param cookie The cookie that was used to lock the record. 
-     * @param stringValues An array of field values for the record.
-     * The order of values or the format of them is not checked in any way.
-     * The fields are updated in the order they are present in the database.
-     * If less values are provided than fields, only the first fields will be updated.
-     * If more values are provided than fields, excess values will be ignored. 
-     * 
-     * @throws SecurityException When attempting to update a record that is not locked 
-     * or that is locked with a cookie other than the one used for locking it.
+     * @param fieldNames The names of the key fields, as in the schema; none to remove the key.
+     * @throws DuplicateKeyException When records in the database already share a key; the key is not set.
+     * @throws IllegalArgumentException When a field name is not in the schema.
      */
-    void setRecordValues(long cookie, String[] stringValues) throws SecurityException {
-        if (!this.locked || this.lockCookie != cookie) {
-            throw new SecurityException();
+    public void setUniqueKey(String... fieldNames) throws DuplicateKeyException {
+        if (fieldNames.length == 0) {
+            uniqueKey = null;
+            return;
+        }
+        short[] keyFields = new short[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            keyFields[i] = DatabaseRecord.getFieldIndex(fieldNames[i]);
+            if (keyFields[i] < 0) {
+                throw new IllegalArgumentException("No field named " + fieldNames[i]);
+            }
         }
         
-        try {
-            for (short i = 0; i < this.values.length; i++)
-            {
-                this.values[i] = fields[i].fitValue(stringValues[i]);
+        // Only the key fields are decoded
+        UniqueKeyIndex key = new UniqueKeyIndex(keyFields);
+        String[] values = new String[DatabaseRecord.getNumberOfFields()];
+        for (int slot = 0; slot < store.getRecordCount(); slot++) {
+            if (store.isRecordDeleted(slot)) {
+                continue;
+            }
+            try {
+                for (short f : keyFields) {
+                    values[f] = store.readFieldValue(slot, f);
+                }
+            } catch (RecordNotFoundException e) {
+                // Cannot happen; the slot is within the store
+            }
+            int recNo = memoryMapped ? slot : recordNumberBySlot[slot];
+            if (!key.add(recNo, values)) {
+                throw new DuplicateKeyException("Records " + key.find(values) + " and " + recNo + " have the same key");
             }
-            this.setRecordDirty();
-        } catch (NullPointerException e) {
-            // Do nothing; we can't report the error upstream
-            // When receiving a null (empty) array, we leave the record unchanged
-            // and don't even set the dirty flag
-        } catch (ArrayIndexOutOfBoundsException e) {
-            // Do nothing; we can't report the error upstream
-            // When receiving less values than what we need, 
-            // we set the first values and leave the rest unchanged 
-            this.setRecordDirty();
         }
+        uniqueKey = key;
     }
     
     /**
-     * Returns the values in the record as an array of strings.
-     * Leading and trailing spaces are not present in the values (trimmed off).
-     *  
-     * @return The list of values in as an array of String,
-     * in the order of the fields as they are found in the database file.
+     * Creates a record in the slot of a deleted record if there is one, or else at the end of the file.
+     * Either way, creating a record costs the same whatever the number of records and of deleted records:
+     * the slot is taken from the free list and only the new record is written.
+     * When the database is not memory mapped, a reused slot gets a new record number; when it is,
+     * the record number is the slot, which is only reused once the deleted record is unlocked.
      */
-    String[] getRecordValues() {
-        String[] stringValues = values.clone();
-        return stringValues; 
+    @Override
+    public int create(String[] data) throws DuplicateKeyException {
+        DatabaseRecord dr = new DatabaseRecord();
+        dr.setRecordValid();
+        dr.setRecordValues(data);
+        
+        try {
+            synchronizer.throttle();
+            FreeListAllocator allocator = getSlotAllocator();
+            int recNo;
+            // Held from the log entry to the index update, see writeChange() and getIndexes()
+            changeLock.readLock().lock();
+            try {
+                long lsn;
+                synchronized (createLock) {
+                    // Slots whose lock ended without unlock()
+                    releaseDeletedSlots();
+                    int slot = allocator.allocate();
+                    if (slot >= store.getRecordCount()) {
+                        // There is no deleted record left to reuse
+                        allocator.extend(appendSlots(slot + 1));
+                    } else if (!memoryMapped) {
+                        renumberSlot(slot);
+                    }
+                    dr.setSlot(slot);
+                    recNo = memoryMapped ? slot : recordNumberBySlot[slot];
+                    UniqueKeyIndex key = uniqueKey;
+                    if (key != null && !key.add(recNo, dr.getRecordValues())) {
+                        allocator.release(slot);
+                        throw new DuplicateKeyException("Record " + key.find(dr.getRecordValues()) + " has the same key");
+                    }
+                    lsn = log.append(slot, dr);
+                }
+                // The slot stays flagged as deleted, hence invisible, until the record is written
+                log.sync(lsn);
+                store.writeRecord(dr.getSlot(), dr);
+                if (!memoryMapped) {
+                    dirtyRecords.mark(dr.getSlot());
+                }
+                synchronized (indexesLock) {
+                    if (indexes != null) {
+                        indexes.add(recNo, dr.getRecordValues());
+                    }
+                }
+                // When memory mapped, a reused record number may still be known with the values of the deleted record
+                fireRecordChanged(recNo);
+            } finally {
+                changeLock.readLock().unlock();
+            }
+            synchronizer.changed();
+            return recNo;
+        } catch (RecordNotFoundException e) {
+            throw new DatabaseRuntimeException("The slot of the new record is outside of the database file.");
+        }
     }
     
     /**
-     * Reads the values for the current record from the database file using the provided DataInput.
-     * The amount of bytes read from the file is the same for each record and is known beforehand.
+     * Grows the store so that it holds at least the given number of records and gives
+     * the new slots their record numbers.
      * 
-     * @param di The DataInput stream associated with the database file.
-     * @throws DatabaseRuntimeException
+     * @return The new number of records.
      */
-    void read(DataInput di) {
-        //TODO: Cannot read or write while locked
-        // if (this.locked) throw new SecurityException();
-
-        try {
-            byte flag = di.readByte();
-            if (flag==0) {
-                this.setRecordValid();
-            } else if (flag==(byte)0xFF) {
-                this.setRecordDeleted();
-            } else {
-                // Ignore the error.
+    private int appendSlots(int minCount) throws DatabaseRuntimeException {
+        if (!memoryMapped) {
+            // Numbered before the store grows, so that whoever sees the new slots can find their numbers
+            int[] recordNumbers = recordNumberBySlot;
+            int count = store.getRecordCount();
+            if (minCount > recordNumbers.length) {
+                recordNumbers = Arrays.copyOf(recordNumbers, Math.max(minCount, recordNumbers.length * 2));
             }
-
-            for (short i = 0; i < values.length; i++) {
-                values[i] = fields[i].readFieldValue(di);
-            }
-            // In case any errors occur, the record will not be marked clean
-            // and will be written to the database file at the first update
-            this.setRecordClean();
-        } catch (EOFException e) {
-            // Ignore the error. Just print it to the console.
-            e.printStackTrace();
-        } catch (IOException e) {
-            // Ignore the error. Just print it to the console.
-            e.printStackTrace();
+            for (int slot = count; slot < minCount; slot++) {
+                recordNumbers[slot] = (int)recordNumberGenerator.newNumber();
+                slotByRecordNumber.put(recordNumbers[slot], slot);
+            }
+            recordNumberBySlot = recordNumbers;
         }
-    }    
-
-    void write(DataOutput dout) throws DatabaseRuntimeException {
-        //TODO: Cannot read or write while locked
-        // if (this.locked) throw new SecurityException();
-        
-        for (short i = 0; i < values.length; i++) {
-            fields[i].writeFieldValue(dout, values[i]);
+        return store.grow(minCount);
+    }
+    
+    /**
+     * Gives a reused slot a new record number, so that record numbers are not reused during a run session.
+     * The number of the deleted record is not found anymore.
+     */
+    private void renumberSlot(int slot) {
+        int oldRecNo = recordNumberBySlot[slot];
+        int recNo = (int)recordNumberGenerator.newNumber();
+        slotByRecordNumber.put(recNo, slot);
+        recordNumberBySlot[slot] = recNo;
+        slotByRecordNumber.put(oldRecNo, -1);
+    }
+    
+    private FreeListAllocator getSlotAllocator() {
+        synchronized (slotAllocatorLock) {
+            if (slotAllocator == null) {
+                slotAllocator = buildSlotAllocator(store);
+            }
+            return slotAllocator;
         }
-        this.setRecordClean();
     }
     
-    @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append((this.isRecordDirty()?"*":" ") + (this.isRecordValid()?"V":"D") + " ");
-        for (short f = 0; f < DatabaseRecord.getNumberOfFields(); f++) {
-            sb.append(String.format("%-" + fields[f].getFieldLength() + "s", this.values[f]) + " ");
+    /**
+     * Collects the slots of the deleted records, the lowest ones being reused first.
+     */
+    private static FreeListAllocator buildSlotAllocator(RecordStore store) {
+        int count = store.getRecordCount();
+        FreeListAllocator allocator = new FreeListAllocator(count);
+        for (int slot = count - 1; slot >= 0; slot--) {
+            if (store.isRecordDeleted(slot)) {
+                allocator.release(slot);
+            }
         }
-        return sb.toString();
+        return allocator;
     }
-}
 
-/**
- * The database wrapper class.
- * Records are cached in memory in their entirety.
- * Records are not physically deleted; they are only flagged as such and reused as new records are added.
- * 
- * Choice:
- * The deletion flag is part of the database schema that thus allows for persisting deleted records in the database file.
- * This allows for easier updates to the database file because only changed records can be updated (relatively small chunks
- * of date written). On the other hand it never allows the database file to shrink. For the task at hand this will not become
- * a problem and if it does, a special maintenance operation might be added later to compact the database by rewriting it
- * and skipping deleted records.
- * 
- * Record numbers:
- *  - are generated as new records are added; this might create problems for very long run sessions
- *    but such usage is not envisioned 
- *  - are stored in the cache along with the records; the index of the record in the cache list is not suitable
- *    to be used as record number, especially in multithreaded environments where one thread may hold a record number
- *    and another may change the record list order by deleting records, rendering the record number useless or invalid  
- *  - are not reused during a run session of the application
- *  - are not persisted in the database file (since the schema does not provide for this)
- *  - are re-generated in a new session, as the database is loaded into the cache upon startup
- */
-public class Data implements DB {
+    @Override
+    public long lock(int recNo) throws RecordNotFoundException {
+        checkRecordValid(recNo);
+        long cookie = lockCookieGenerator.newCookie();
+        lockManager.lock(recNo, cookie);
+        checkStillValid(recNo, cookie);
+        return cookie;
+    }
     
-    // Memory Cache
-    // Records are stored in the order in which they are read from the file or appended from the UI
-    // and their position in the list never changes, to allow selective writing to the database of only the updated records
-    private static final List<DatabaseRecord> data = new ArrayList<DatabaseRecord>();
-    // This is an indexed view on the previous list; it has to be kept in sync with the main list 
-    private static final Map<Integer, DatabaseRecord> dataByRecordNumber = new TreeMap<Integer, DatabaseRecord>(); 
+    /**
+     * Locks a record like lock() does, but gives up when the record is still locked by another client
+     * after the given time.
+     * 
+     * @param recNo The number of the record to lock.
+     * @param timeout The maximum time to wait for the record to be unlocked.
+     * @param unit The unit of the timeout.
+     * @return The cookie to use for updating, deleting and unlocking the record,
+     * or -1 if the record could not be locked in time.
+     * @throws RecordNotFoundException When the record does not exist.
+     */
+    public long tryLock(int recNo, long timeout, TimeUnit unit) throws RecordNotFoundException {
+        checkRecordValid(recNo);
+        long cookie = lockCookieGenerator.newCookie();
+        if (!lockManager.tryLock(recNo, cookie, timeout, unit)) {
+            return -1;
+        }
+        checkStillValid(recNo, cookie);
+        return cookie;
+    }
+
+    @Override
+    public void unlock(int recNo, long cookie)
+            throws RecordNotFoundException, SecurityException {
+        checkRecordExists(recNo);
+        lockManager.unlock(recNo, cookie);
+        releaseDeletedSlots();
+    }
     
+    /**
+     * Puts the slots of the deleted records that are no longer locked on the free list,
+     * whether they were unlocked or their lease ended.
+     */
+    private void releaseDeletedSlots() {
+        synchronized (deletedSlots) {
+            if (deletedSlots.isEmpty()) {
+                return;
+            }
+            // Built already by delete()
+            FreeListAllocator allocator = getSlotAllocator();
+            for (Iterator<Integer> i = deletedSlots.iterator(); i.hasNext(); ) {
+                int slot = i.next();
+                if (!lockManager.isLocked(memoryMapped ? slot : recordNumberBySlot[slot])) {
+                    allocator.release(slot);
+                    i.remove();
+                }
+            }
+        }
+    }
     
-    // Database path used to write the records back to the file when the application finishes
-    private String dbPath = null;
+    /**
+     * Gives the locks acquired from now on a lease: a lock that is not used (to update or delete its record)
+     * or renewed for the given time is released, and handed over to the next client waiting for it.
+     * Its holder then gets a SecurityException when it uses its cookie. Without a lease, which is the default,
+     * a lock is held until it is released.
+     * 
+     * @param time The lease time; 0 for no lease.
+     */
+    public void setLockLease(long time, TimeUnit unit) {
+        lockManager.setLease(time, unit);
+    }
     
-    // This class is meant to be run by a separate thread and it takes care of periodically
-    // writing the database cache to the database file. When the thread is stopped, the cache
-    // is written to the file for one last time, to allow last pending changes to be written.
-/*    private class CacheSynchronizer implements Runnable {
-        private boolean stopCst = false;
-        private boolean lastRun = false;
-        
-        public void stop() {
-            if (!stopCst) {
-                stopCst = true;
-                lastRun = true;
-            }
+    /**
+     * Starts the lease of a lock over, for a client that holds it longer than the lease time without using it.
+     * 
+     * @throws SecurityException When the record is not locked with the given cookie, e.g. because its lease ended.
+     */
+    public void renewLock(int recNo, long cookie) throws RecordNotFoundException, SecurityException {
+        checkRecordExists(recNo);
+        if (!lockManager.renew(recNo, cookie)) {
+            throw new SecurityException();
         }
-
-        @Override
-        public void run() {
-            while (!stopCst || lastRun) {
-                if (lastRun) {
-                    System.out.println("CacheSynchronizer: last run");
-                    lastRun = false;
-                }
-                        
+    }
+    
+    @Override
+    public String[][] readMany(int[] recNos) {
+        String[][] values = new String[recNos.length][];
+        for (int i = 0; i < recNos.length; i++) {
+            int slot = findSlot(recNos[i]);
+            if (slot >= 0 && slot < store.getRecordCount() && !store.isRecordDeleted(slot)) {
                 try {
-                    writeData(dbPath);
-                    Thread.sleep(5000);
-                } catch (DatabaseException e) {
-                    // do nothing ???
-                } catch (InterruptedException e) {
-                    // do nothing
+                    values[i] = store.readRecordValues(slot);
+                } catch (RecordNotFoundException e) {
+                    // Deleted in the meantime; left null
                 }
             }
         }
+        return values;
     }
-*/    
-    private final static AutoIncrementNumberGenerator recordNumberGenerator 
-        = new AutoIncrementNumberGenerator();
-
-    private final static AutoIncrementNumberGenerator lockCookieGenerator 
-        = new AutoIncrementNumberGenerator();
     
-    public Data(String dbPath) throws DatabaseRuntimeException {
-        super();
-  
-        // Reads the given database file and fills the memory cache with its content, possibly throwing a DatabaseException
+    @Override
+    public Map<Integer, Long> lockMany(int[] recNos) throws RecordNotFoundException {
+        // Always locking in ascending order makes a cycle of waiting clients impossible
+        int[] sorted = recNos.clone();
+        Arrays.sort(sorted);
+        Map<Integer, Long> cookies = new TreeMap<Integer, Long>();
         try {
-            readData(dbPath);
-            this.dbPath = dbPath;
-        } catch (Exception e) {
-            throw new DatabaseRuntimeException("Some error occured while reading the database. Check the path and file.");
+            for (int recNo : sorted) {
+                if (!cookies.containsKey(recNo)) {
+                    cookies.put(recNo, lock(recNo));
+                }
+            }
+        } catch (RecordNotFoundException e) {
+            try {
+                unlockMany(cookies);
+            } catch (SecurityException ex) {
+                // Cannot happen; the records were just locked with these cookies
+            }
+            throw e;
         }
+        return cookies;
     }
-  
-    // Reads a record from the file. Returns an array where each
-    // element is a record value
+    
     @Override
-    public String[] read(int recNo) throws RecordNotFoundException {
-        // synchronized(data) ??
+    public void updateMany(Map<Integer, String[]> data, Map<Integer, Long> lockCookies)
+            throws RecordNotFoundException, SecurityException, DuplicateKeyException {
+        // All records are checked before the first one is changed
+        Map<Integer, DatabaseRecord> records = new TreeMap<Integer, DatabaseRecord>();
+        for (int recNo : data.keySet()) {
+            DatabaseRecord dr = getRecord(recNo);
+            if (dr == null || dr.isRecordDeleted()) {
+                throw new RecordNotFoundException("No record with number " + recNo);
+            }
+            Long cookie = lockCookies.get(recNo);
+            if (cookie == null || !lockManager.renew(recNo, cookie)) {
+                throw new SecurityException();
+            }
+            records.put(recNo, dr);
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        
+        // The new values are checked against the unique key for all records before any is written
+        Map<Integer, String[]> oldValues = new HashMap<Integer, String[]>();
+        List<Integer> keyUpdated = new ArrayList<Integer>();
+        UniqueKeyIndex key = uniqueKey;
+        for (Map.Entry<Integer, DatabaseRecord> e : records.entrySet()) {
+            DatabaseRecord dr = e.getValue();
+            oldValues.put(e.getKey(), dr.getRecordValues());
+            dr.setRecordValues(data.get(e.getKey()));
+            if (key != null) {
+                if (!key.update(e.getKey(), oldValues.get(e.getKey()), dr.getRecordValues())) {
+                    for (int i = keyUpdated.size() - 1; i >= 0; i--) {
+                        int recNo = keyUpdated.get(i);
+                        key.update(recNo, records.get(recNo).getRecordValues(), oldValues.get(recNo));
+                    }
+                    throw new DuplicateKeyException("Another record has the key of the new values of record " 
+                            + e.getKey());
+                }
+                keyUpdated.add(e.getKey());
+            }
+        }
+        
+        synchronizer.throttle();
+        boolean logged = false;
+        // Held from the log entries to the index updates, see writeChange() and getIndexes()
+        changeLock.readLock().lock();
         try {
-            return dataByRecordNumber.get(recNo).getRecordValues();
-        } catch (Exception e) {
-            return null;
+            long lastLsn = 0;
+            for (DatabaseRecord dr : records.values()) {
+                lastLsn = log.append(dr.getSlot(), dr);
+            }
+            // A single force of the log makes the whole batch durable
+            log.sync(lastLsn);
+            logged = true;
+            for (Map.Entry<Integer, DatabaseRecord> e : records.entrySet()) {
+                DatabaseRecord dr = e.getValue();
+                store.writeRecord(dr.getSlot(), dr);
+                if (!memoryMapped) {
+                    dirtyRecords.mark(dr.getSlot());
+                }
+                synchronized (indexesLock) {
+                    if (indexes != null) {
+                        indexes.update(e.getKey(), oldValues.get(e.getKey()), dr.getRecordValues());
+                    }
+                }
+                fireRecordChanged(e.getKey());
+            }
+        } finally {
+            changeLock.readLock().unlock();
+            // A batch that could not be logged leaves the keys of the records as they were
+            if (!logged) {
+                for (int i = keyUpdated.size() - 1; i >= 0; i--) {
+                    int recNo = keyUpdated.get(i);
+                    key.update(recNo, records.get(recNo).getRecordValues(), oldValues.get(recNo));
+                }
+            }
         }
+        synchronizer.changed(records.size());
     }
-
-    // Modifies the fields of a record. The new value for field n
-    // appears in data[n]. Throws SecurityException
-    // if the record is locked with a cookie other than lockCookie.
+    
     @Override
-    public void update(int recNo, String[] data, long lockCookie)
-            throws RecordNotFoundException, SecurityException {
-        
+    public void unlockMany(Map<Integer, Long> lockCookies) throws RecordNotFoundException, SecurityException {
+        RecordNotFoundException notFound = null;
+        SecurityException notLocked = null;
+        for (Map.Entry<Integer, Long> e : lockCookies.entrySet()) {
+            try {
+                unlock(e.getKey(), e.getValue());
+            } catch (RecordNotFoundException ex) {
+                if (notFound == null && notLocked == null) {
+                    notFound = ex;
+                }
+            } catch (SecurityException ex) {
+                if (notFound == null && notLocked == null) {
+                    notLocked = ex;
+                }
+            }
+        }
+        if (notFound != null) {
+            throw notFound;
+        }
+        if (notLocked != null) {
+            throw notLocked;
+        }
+    }
+    
+    /**
+     * Returns the activity of the record locks.
+     */
+    public LockStatistics getLockStatistics() {
+        return lockManager.getStatistics();
+    }
+    
+    private void checkRecordValid(int recNo) throws RecordNotFoundException {
+        int slot = findSlot(recNo);
+        if (slot < 0 || slot >= store.getRecordCount() || store.isRecordDeleted(slot)) {
+            throw new RecordNotFoundException();
+        }
+    }
+    
+    /**
+     * Checks that the record was not deleted while waiting for its lock; if it was, the lock is released.
+     */
+    private void checkStillValid(int recNo, long cookie) throws RecordNotFoundException {
         try {
-            DatabaseRecord dr = dataByRecordNumber.get(recNo);
-            dr.setRecordValues(lockCookie, data);
-            this.writeData(this.dbPath);
-        } catch (SecurityException e) {
+            checkRecordValid(recNo);
+        } catch (RecordNotFoundException e) {
+            try {
+                lockManager.unlock(recNo, cookie);
+            } catch (SecurityException ex) {
+                // Cannot happen; the record was just locked with this cookie
+            }
             throw e;
-        } catch (DatabaseRuntimeException e) {
-            // All other DatabaseExceptions are silently ignored
-            // because the interface does not allow reporting them
-            e.printStackTrace();
-        } catch (NullPointerException e) {
+        }
+    }
+    
+    private void checkRecordExists(int recNo) throws RecordNotFoundException {
+        int slot = findSlot(recNo);
+        if (slot < 0 || slot >= store.getRecordCount()) {
             throw new RecordNotFoundException();
         }
     }
+
+    /**
+     * Makes a change durable in the write-ahead log, then writes the record to the store; in the memory
+     * cache, the record is marked dirty for the next checkpoint to write it to the database file.
+     * Returns when the log entry is on disk; concurrent changes are forced together (group commit).
+     * 
+     * The change is logged first, so that a change that could not be logged is neither seen by readers
+     * nor written to the file. A memory mapped file may also get the mapped pages written at any time:
+     * a record torn by a crash can then always be restored from its entry.
+     */
+    private void writeChange(DatabaseRecord dr) throws DatabaseRuntimeException, RecordNotFoundException {
+        // A checkpoint cannot rotate the log between the two, or it could discard the entry
+        // before the record is in the store it writes to the file
+        changeLock.readLock().lock();
+        try {
+            long lsn = log.append(dr.getSlot(), dr);
+            log.sync(lsn);
+            store.writeRecord(dr.getSlot(), dr);
+            if (!memoryMapped) {
+                dirtyRecords.mark(dr.getSlot());
+            }
+        } finally {
+            changeLock.readLock().unlock();
+        }
+        synchronizer.changed();
+    }
     
-    // Deletes a record, making the record number and associated disk
-    // storage available for reuse
-    // Throws SecurityException if the record is locked with a cookie
-    // other than lockCookie.
-    @Override
-    public void delete(int recNo, long lockCookie)
-            throws RecordNotFoundException, SecurityException {
-        
+    /**
+     * Writes the changes recorded in the write-ahead log to the database file
+     * and discards the part of the log that is no longer needed.
+     */
+    private void checkpoint() throws DatabaseRuntimeException {
+        // Waits for the changes between their log entry and their write to the store, see writeChange()
+        changeLock.writeLock().lock();
+        try {
+            synchronized (log) {
+                if (log.hasEntries()) {
+                    // Changes logged from now on are kept for the next checkpoint
+                    log.rotate();
+                } else if (!checkpointFailed) {
+                    return;
+                }
+            }
+        } finally {
+            changeLock.writeLock().unlock();
+        }
+        // Until the changes are in the database file, the older segments are the only durable copy
+        checkpointFailed = true;
+        if (memoryMapped) {
+            ((MappedRecordStore)store).force();
+        } else {
+            writeData();
+        }
+        log.deleteObsoleteSegments();
+        checkpointFailed = false;
     }
+    
+    private void openLog(FlushSettings flushSettings) throws DatabaseRuntimeException {
+        log = new WriteAheadLog(this.dbPath);
+        synchronizer = new CacheSynchronizer(flushSettings);
+        synchronizerThread = new Thread(synchronizer, "CacheSynchronizer " + new File(dbPath).getName());
+        synchronizerThread.setDaemon(true);
+        synchronizerThread.start();
         
-    @Override
-    public int[] find(String[] criteria) {
-        return new int[] {0};
+        // Pending changes are written to the database file when the JVM exits normally,
+        // even if the database was not closed
+        shutdownHook = new Thread("Database shutdown") {
+            @Override
+            public void run() {
+                try {
+                    closeLog();
+                } catch (DatabaseRuntimeException e) {
+                    // Nobody to tell while the JVM exits; the changes are applied from the log
+                    // when the database is opened again
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
-
-    @Override
-    public int create(String[] data) throws DuplicateKeyException {
-        return 0;
+    
+    /**
+     * Stops the cache synchronizer, applies the remaining changes to the database file and closes the log.
+     * 
+     * @throws DatabaseRuntimeException When the remaining changes could not be written to the database file;
+     * the log is closed anyway and kept, so that they are applied when the database is opened again.
+     */
+    private synchronized void closeLog() throws DatabaseRuntimeException {
+        if (log == null) {
+            return;
+        }
+        synchronizer.stop();
+        try {
+            // The synchronizer does a last run before ending
+            synchronizerThread.join();
+        } catch (InterruptedException e) {
+            // do nothing
+        }
+        boolean keepLog = checkpointFailed;
+        DatabaseRuntimeException failure = synchronizer.getLastFailure();
+        log.close(keepLog);
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down; the hook is running or about to
+            }
+        }
+        log = null;
+        synchronizer = null;
+        synchronizerThread = null;
+        shutdownHook = null;
+        if (keepLog) {
+            throw new DatabaseRuntimeException("Some changes could not be written to the database file ("
+                    + ((failure == null) ? "unknown error" : failure.getMessage())
+                    + "); they are kept in the log until the database is opened again.");
+        }
     }
-
-    @Override
-    public long lock(int recNo) throws RecordNotFoundException {
+    
+    /**
+     * Returns the activity of the background synchronizer that writes changes to the database file.
+     */
+    public FlushStatistics getFlushStatistics() {
+        return synchronizer.getStatistics();
+    }
+    
+    /**
+     * Writes all pending changes to the database file and releases it, unless the database was opened
+     * more times than it was closed. The database must not be used after it is closed.
+     */
+    public void close() throws DatabaseRuntimeException {
+        CompletableFuture<Data> closing = new CompletableFuture<Data>();
+        synchronized (openDatabases) {
+            if (openCount == 0 || --openCount > 0) {
+                return;
+            }
+            // The file is opened again only once it is released
+            openDatabases.put(canonicalPath, closing);
+        }
         try {
-            DatabaseRecord dr = dataByRecordNumber.get(recNo);
-            long cookie = lockCookieGenerator.newNumber();
-            dr.lock(cookie);
-            return cookie;
-        } catch (NullPointerException e) {
-            throw new RecordNotFoundException();
+            lockManager.close();
+            closeLog();
+        } finally {
+            // Released even when the changes are left in the log
+            try {
+                closeDataFile();
+                closeStore();
+            } finally {
+                synchronized (openDatabases) {
+                    openDatabases.remove(canonicalPath);
+                }
+                closing.complete(null);
+            }
         }
     }
-
-    @Override
-    public void unlock(int recNo, long cookie)
-            throws RecordNotFoundException, SecurityException {
+    
+    private void closeDataFile() throws DatabaseRuntimeException {
+        if (dataFile == null) {
+            return;
+        }
         try {
-            DatabaseRecord dr = dataByRecordNumber.get(recNo);
-            dr.unlock(cookie);
-        } catch (NullPointerException e) {
-            throw new RecordNotFoundException();
+            dataFile.close();
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while closing database file.");
         }
+        dataFile = null;
     }
-
+    
+    private void closeStore() throws DatabaseRuntimeException {
+        if (store == null) {
+            return;
+        }
+        store.close();
+        store = null;
+    }
+    
     public int getRecordCount() {
-        return data.size();
+        return store.getRecordCount();
+    }
+    
+    /**
+     * Returns the slot of the record with the given number, or -1 if there is no such record number.
+     */
+    private int findSlot(int recNo) {
+        if (memoryMapped) {
+            return recNo;
+        }
+        return slotByRecordNumber.find(recNo);
+    }
+    
+    private int getSlot(int recNo) throws RecordNotFoundException {
+        int slot = findSlot(recNo);
+        if (slot < 0) {
+            throw new RecordNotFoundException("No record with number " + recNo);
+        }
+        return slot;
+    }
+    
+    /**
+     * Returns a new record read from the store, or null if there is no record with the given number.
+     * Changes to the record only reach the store when it is written back.
+     */
+    private DatabaseRecord getRecord(int recNo) {
+        try {
+            return store.readRecord(getSlot(recNo));
+        } catch (RecordNotFoundException e) {
+            return null;
+        }
     }
     
     public void printDataCache() {
@@ -571,57 +1319,126 @@ public class Data implements DB {
         }
         
         System.out.println("\nRECORDS");
-        for (int i = 0; i < data.size(); i++) {
-            DatabaseRecord dr = data.get(i);
-            System.out.println(dr);
+        for (int i = 0; i < store.getRecordCount(); i++) {
+            try {
+                DatabaseRecord dr = store.readRecord(i);
+                if (!memoryMapped && dirtyRecords.contains(i)) {
+                    dr.setRecordDirty();
+                }
+                System.out.println(dr);
+            } catch (RecordNotFoundException e) {
+                // Cannot happen; the slot is within the store
+            }
         }
     }
 
-    private void readData(String dbPath) throws DatabaseRuntimeException {
+    /**
+     * Reads the records of the database file into the memory cache.
+     * The regions of records are read in parallel with bulk positional reads, then the record numbers
+     * are assigned while the indexes are built in parallel, one field per task. Everything is built
+     * aside and only published at the end, so the cache is never seen half loaded.
+     * 
+     * @param direct When true, the records are kept outside of the heap.
+     */
+    private void readData(String dbPath, boolean direct) throws DatabaseRuntimeException {
+        RandomAccessFile raf = null;
         try {
-            RandomAccessFile raf = new RandomAccessFile(dbPath,"rws");
+            raf = new RandomAccessFile(dbPath,"rw");
             
-            data.clear();
-            dataByRecordNumber.clear();
             DatabaseRecord.readSchema(raf);
-            while ( raf.getFilePointer() < raf.length() ) {
-                DatabaseRecord dr = DatabaseRecord.readRecord(raf);
-                data.add(dr);
-                dataByRecordNumber.put((int)recordNumberGenerator.newNumber(), dr);
+            final RecordStore newStore = new MemoryRecordStore(raf.getChannel(), direct);
+            final int count = newStore.getRecordCount();
+            final int[] recordNumbers = new int[count];
+            int first = (int)recordNumberGenerator.newBlock(count);
+            for (int slot = 0; slot < count; slot++) {
+                recordNumbers[slot] = first + slot;
+            }
+            
+            final RecordDirectory newSlots = new RecordDirectory(first, count, direct);
+            ForkJoinTask<FreeListAllocator> directory = ForkJoinPool.commonPool().submit(
+                    new Callable<FreeListAllocator>() {
+                @Override
+                public FreeListAllocator call() {
+                    for (int slot = 0; slot < count; slot++) {
+                        newSlots.put(recordNumbers[slot], slot);
+                    }
+                    return buildSlotAllocator(newStore);
+                }
+            });
+            RecordIndexes newIndexes = RecordIndexes.build(newStore, recordNumbers);
+            FreeListAllocator newAllocator = directory.join();
+            
+            slotByRecordNumber = newSlots;
+            recordNumberBySlot = recordNumbers;
+            synchronized (slotAllocatorLock) {
+                slotAllocator = newAllocator;
+            }
+            synchronized (indexesLock) {
+                indexes = newIndexes;
             }
-            raf.close();
+            store = newStore;
+            // Kept open for writing back the records that change
+            dataFile = raf;
         } catch (FileNotFoundException e) {
             throw new DatabaseRuntimeException("FileNotFoundException while reading database.");
-        } catch (IOException e) {
-            throw new DatabaseRuntimeException("IOException while reading database.");
+        } finally {
+            if (raf != null && dataFile != raf) {
+                // The file could not be read
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
         }
     }
     
-    private void writeData(String dbPath) throws DatabaseRuntimeException {
+    /**
+     * Maps the database file in memory instead of loading it in the memory cache.
+     * Only the schema is read; the time this takes does not depend on the number of records.
+     */
+    private void mapData(String dbPath) throws DatabaseRuntimeException {
+        store = new MappedRecordStore(dbPath);
+        memoryMapped = true;
+    }
+    
+    /**
+     * Writes the records in the dirty set to the database file and forces them to disk.
+     * Each record is copied from its slice to its own position in the file, computed from its slot,
+     * so the cost depends on the number of dirty records only and not on the size of the file.
+     * No lock is held on the memory cache while writing.
+     */
+    private void writeData() throws DatabaseRuntimeException {
+        int[] slots = dirtyRecords.drain();
+        if (slots.length == 0) {
+            return;
+        }
+        
+        boolean written = false;
         try {
-            RandomAccessFile raf = new RandomAccessFile(dbPath,"rws");
-            // This will place the file pointer on the first record
-            DatabaseRecord.skipSchema(raf);
-    
-            int dirtyCount = 0;
-            synchronized (data) {
-                for (int i = 0; i < data.size(); i++) {
-                    DatabaseRecord dr = data.get(i);
-                    if (dr.isRecordDirty()) {
-                        dirtyCount++;
-                        dr.write(raf);
-                        
-                        dr.setRecordClean();
-                    } else {
-                        DatabaseRecord.skipRecord(raf);
-                    }
+            FileChannel channel = dataFile.getChannel();
+            ByteBuffer bb = ByteBuffer.allocate(DatabaseRecord.getRecordSlotSize());
+            for (int slot : slots) {
+                bb.clear();
+                store.copyRecord(slot, bb);
+                bb.flip();
+                long offset = RecordStore.getRecordOffset(slot);
+                while (bb.hasRemaining()) {
+                    channel.write(bb, offset + bb.position());
                 }
             }
-            if (dirtyCount > 0) {
-                System.out.println("Written " + dirtyCount + " dirty record(s) to the database file.");
+            channel.force(false);
+            written = true;
+            System.out.println("Written " + slots.length + " dirty record(s) to the database file.");
+        } catch (RecordNotFoundException e) {
+            throw new DatabaseRuntimeException("Dirty record outside of the database file.");
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while writing database file.");
+        } finally {
+            if (!written) {
+                // Written again by the next checkpoint
+                dirtyRecords.restore(slots);
             }
-        } catch (FileNotFoundException e) {
-            throw new DatabaseRuntimeException("FileNotFoundException while writing database file.");
         }
     }
 }
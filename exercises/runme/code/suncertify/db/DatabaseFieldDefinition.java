@@ -0,0 +1,148 @@
+package suncertify.db;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+class DatabaseFieldDefinition {
+    protected final String fieldName;
+    protected final int fieldLength;
+    
+    DatabaseFieldDefinition(String name, int length) {
+        assert(length > 0);        
+        this.fieldName = name; 
+        this.fieldLength = length; 
+    }
+    
+    String getFieldName() { 
+        return this.fieldName; 
+    }
+    
+    int getFieldLength() { 
+        return this.fieldLength;
+    }
+    
+    /**
+     * Reads a field definition (name and length) from the database file using the provided DataInput stream
+     * and checks if it matches the expected definition of the field.
+     * 
+     * @param di The DataInput stream from which to read the field definition.
+     */
+    void readAndCheckFieldDefinition(DataInput di) {
+        try {
+            byte fnl = di.readByte();
+    
+            byte[] b = new byte[fnl];
+            di.readFully(b);
+            String fn = new String(b);
+            if (!fn.toLowerCase().equals(fieldName)) {
+                throw new DatabaseRuntimeException("Field name mismatch. " + 
+                        "Expected \"" + fieldName + "\" encountered \"" + fn + "\"");
+            }
+            
+            byte fl = di.readByte();
+            
+            if (fl != fieldLength) {
+                throw new DatabaseRuntimeException("Field length mismatch for field " + fieldName + ". " 
+                        + "Expected " + fieldLength + " found " + fl);
+            }
+        } catch (EOFException e) {
+            throw new DatabaseRuntimeException("End of file encountered while reading schema.");
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IO Exception while reading schema.");
+        }
+    }
+    
+    /**
+     * Gets a raw value, trims leading and trailing whitespace and truncates it to the fieldLength.  
+     * 
+     * @param value The raw value
+     * @return The trimmed value
+     */
+    String fitValue(String value) {
+        try {        
+            // Trim spaces and truncate excess characters
+            if (value.length() > fieldLength) value = value.substring(0, fieldLength);
+            return value.trim();
+        } catch (NullPointerException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Reads the value of the field from the database file through the provided DataInput stream.
+     * It reads exactly the amount of bytes corresponding to the field's length.
+     * The return value is trimmed and fitted using fitValue().
+     * 
+     * @param di The DataInput stream to read the value from.
+     * @return The fit-and-trim value for the field.
+     */
+    String readFieldValue(DataInput di) throws DatabaseRuntimeException {
+        try {
+            byte[] b = new byte[fieldLength];
+            di.readFully(b);
+            return fitValue(new String(b));
+        } catch (EOFException e) {
+            throw new DatabaseRuntimeException("EOF encountered while reading value for field " + fieldName);
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IO exception encountered while reading value for field " + fieldName);
+        }
+    }
+    
+    /**
+     * Reads the value of the field from the provided buffer, starting at its current position.
+     * It reads exactly the amount of bytes corresponding to the field's length.
+     * The return value is trimmed and fitted using fitValue().
+     * 
+     * @param bb The buffer to read the value from (e.g. a region of a memory mapped database file).
+     * @return The fit-and-trim value for the field.
+     */
+    String readFieldValue(ByteBuffer bb) {
+        byte[] b = new byte[fieldLength];
+        bb.get(b);
+        return fitValue(new String(b));
+    }
+    
+    /**
+     * Writes the provided field value to the provided buffer, starting at its current position.
+     * The amount of bytes written is exactly the field's length. The value is fitted and padded
+     * with whitespaces the same way as when writing through a DataOutput stream.
+     * Only the low eight bits of each character are written, like DataOutput.writeBytes() does.
+     * 
+     * @param bb The buffer to write the value to.
+     * @param value The value to write. A null value is written as an empty field.
+     */
+    void writeFieldValue(ByteBuffer bb, String value) {
+        value = fitValue(value);
+        int length = (value == null) ? 0 : value.length();
+        for (int i = 0; i < fieldLength; i++) {
+            bb.put((i < length) ? (byte)value.charAt(i) : (byte)' ');
+        }
+    }
+    
+    /**
+     * Writes the provided field value to the database file through the provided DataOutput stream.
+     * The amount of bytes written is exactly the field's length. The value is first fitted using 
+     * fitValue() to make sure it fits in the field, then padded with whitespaces at the end to fill
+     * the field's space if necessary. 
+     * 
+     * Errors that may occur during writing are silently suppressed because the DB interface does not
+     * provide for reporting them. This has the potential of corrupting the database file.
+     * 
+     * @param dout The DataOutput stream to write the value to.
+     * @param value The value to write. It is padded with whitespaces as necessary.
+     */
+    void writeFieldValue(DataOutput dout, String value) throws DatabaseRuntimeException {
+        try {
+            value = fitValue(value);
+            if (value == null) value = "";
+            dout.writeBytes(value);
+            for (int i = 0; i < fieldLength - value.length(); i++)
+            {
+                dout.writeBytes(" ");
+            }
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IO exception encountered while writing value for field " + fieldName);
+        }
+    }
+}
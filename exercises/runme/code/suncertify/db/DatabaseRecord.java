@@ -0,0 +1,357 @@
+package suncertify.db;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * 
+ * @author racanu
+ *
+ */
+class DatabaseRecord {
+    //
+    // The following are the static fields and operations.
+    // They deal with the definition of a record (i.e. the schema)
+    //
+    private static final int magicCookie = 259;
+
+    private static final DatabaseFieldDefinition[] fields = {
+        new DatabaseFieldDefinition("name", 64),
+        new DatabaseFieldDefinition("location", 64),
+        new DatabaseFieldDefinition("size", 4),
+        new DatabaseFieldDefinition("smoking", 1),
+        new DatabaseFieldDefinition("rate", 8),
+        new DatabaseFieldDefinition("date", 10),
+        new DatabaseFieldDefinition("owner", 8)
+    };
+    private static final short recordSize;
+    private static final int schemaSize;
+    
+    static {
+        short rs = 0;
+        // Magic cookie (int) and number of fields per record (short)
+        int ss = 4 + 2;
+        for (short i=0; i<fields.length; i++) {
+            rs += fields[i].getFieldLength();
+            // Field name length (byte), field name and field length (byte)
+            ss += 1 + fields[i].getFieldName().length() + 1;
+        }
+        recordSize = rs;
+        schemaSize = ss;
+    }
+
+    static DatabaseFieldDefinition getFieldDefinition(short index) {
+        if (index < fields.length) {
+            return fields[index];
+        } else {
+            return null;
+        }
+    }
+
+    static short getNumberOfFields() {
+        return (short)fields.length;
+    }
+    
+    /**
+     * Returns the position of the field with the given name in the schema, or -1 if there is none.
+     */
+    static short getFieldIndex(String fieldName) {
+        for (short i = 0; i < fields.length; i++) {
+            if (fields[i].getFieldName().equals(fieldName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    static short getRecordSize() {
+        return recordSize;
+    }
+    
+    /**
+     * Returns the number of bytes the schema takes at the beginning of the database file.
+     * Records start right after the schema.
+     */
+    static int getSchemaSize() {
+        return schemaSize;
+    }
+    
+    /**
+     * Returns the number of bytes a record takes in the database file, 
+     * i.e. the deletion flag followed by the values of all fields.
+     */
+    static int getRecordSlotSize() {
+        return 1 + recordSize;
+    }
+    
+    /**
+     * Returns the position of the value of the given field from the start of the record (i.e. from the deletion flag).
+     */
+    static int getFieldOffset(short index) {
+        int offset = 1;
+        for (short i = 0; i < index; i++) {
+            offset += fields[i].getFieldLength();
+        }
+        return offset;
+    }
+    
+    static void skipSchema(DataInput di) throws DatabaseRuntimeException {
+        // This is just a semantic method. 
+        // We could implement an actual skipping (i.e. moving the file pointer) 
+        // but for simplicity's sake we choose to just read the schema.
+        // The assignment allows us to assume that only one process (this one) has access to the database file.
+        // Hence the schema cannot have been changed by an external party. 
+        // To support a scenario in which the schema can be changed by an external party, would require a lot more than the
+        // current assignment targets.
+        readSchema(di);
+    }
+    
+    static void readSchema(DataInput di) throws DatabaseRuntimeException {
+        try {
+            int mc = di.readInt();
+            if (mc != magicCookie) { 
+                throw new DatabaseRuntimeException("Incorrect magic cookie. " 
+                        + "Expected " + magicCookie + " encountered " + mc);
+            }
+            
+            short fpr = di.readShort();
+            if (fpr != fields.length) {
+                throw new DatabaseRuntimeException("Incorrect number of fields per record. " 
+                        + "Expected " + fields.length + "encountered " + fpr);
+            }
+            
+            for (short i = 0; i < fields.length; i++ ) {
+                fields[i].readAndCheckFieldDefinition(di);
+            }
+        } catch (EOFException e) {
+            throw new DatabaseRuntimeException("EOF encountered while reading schema from database file.");
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IO exception encountered while reading schema from database file.");
+        }
+    }
+    
+    /**
+     * Reads a record from the database file using the provided DataInput stream.
+     * 
+     * @param di
+     * @return
+     * @throws DatabaseRuntimeException
+     */
+    static DatabaseRecord readRecord(DataInput di) throws DatabaseRuntimeException {
+        DatabaseRecord dr = new DatabaseRecord();
+        dr.read(di);
+        return dr;
+    }    
+    
+    /**
+     * Decodes the values of a record directly from the provided buffer, without creating a DatabaseRecord.
+     * The buffer must be positioned on the deletion flag of the record.
+     * 
+     * @param bb The buffer positioned on the record.
+     * @return The values of the record or null if the record is flagged as deleted.
+     */
+    static String[] readRecordValues(ByteBuffer bb) {
+        if (bb.get() == (byte)0xFF) {
+            return null;
+        }
+        String[] stringValues = new String[fields.length];
+        for (short i = 0; i < fields.length; i++) {
+            stringValues[i] = fields[i].readFieldValue(bb);
+        }
+        return stringValues;
+    }
+    
+    /**
+     * Skips a record by moving the file pointer forward a number of bytes equals to the size of the record
+     * (i.e. the deletion flag and the values).
+     * 
+     * @param di
+     * @return
+     * @throws DatabaseRuntimeException
+     */
+    static void skipRecord(DataInput di) throws DatabaseRuntimeException{
+        try {
+            di.skipBytes(DatabaseRecord.getRecordSlotSize());
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IO exception while skipping record.");
+        }
+    }
+    
+    //
+    // The following are instance related fields and operations
+    //
+    // The lock on the record is not kept here but in the RecordLockManager of the database
+    private boolean dirty = true;
+    private byte flag;
+    private final String[] values = new String[fields.length];
+    // Position of the record in the database file; it never changes once the record is stored
+    private int slot = -1;
+    
+    int getSlot() { return this.slot; }
+    void setSlot(int slot) { this.slot = slot; }
+    
+    void setRecordDirty() { this.dirty = true; }
+    boolean isRecordDirty() { return this.dirty == true; }
+    void setRecordClean() { this.dirty = false; }
+    boolean isRecordClean() { return this.dirty == false; }
+    void setRecordValid() { this.flag = 0; }
+    boolean isRecordValid() { return this.flag == 0; }
+    void setRecordDeleted() { this.flag = (byte)0xFF; }
+    boolean isRecordDeleted() { return this.flag == (byte)0xFF; }
+
+    /**
+     * Takes a list of values in the form of an array of String and updates the fields
+     * of the record with them. Leading and trailing spaces are trimmed off. Values that
+     * are too long to fit in the corresponding field are silently truncated.
+     * The caller must have checked that the record is locked by whoever changes it.
+     * 
+     * @param stringValues An array of field values for the record.
+     * The order of values or the format of them is not checked in any way.
+     * The fields are updated in the order they are present in the database.
+     * If less values are provided than fields, only the first fields will be updated.
+     * If more values are provided than fields, excess values will be ignored. 
+     */
+    synchronized void setRecordValues(String[] stringValues) {
+        try {
+            for (short i = 0; i < this.values.length; i++)
+            {
+                this.values[i] = fields[i].fitValue(stringValues[i]);
+            }
+            this.setRecordDirty();
+        } catch (NullPointerException e) {
+            // Do nothing; we can't report the error upstream
+            // When receiving a null (empty) array, we leave the record unchanged
+            // and don't even set the dirty flag
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Do nothing; we can't report the error upstream
+            // When receiving less values than what we need, 
+            // we set the first values and leave the rest unchanged 
+            this.setRecordDirty();
+        }
+    }
+    
+    /**
+     * Returns the values in the record as an array of strings.
+     * Leading and trailing spaces are not present in the values (trimmed off).
+     *  
+     * @return The list of values in as an array of String,
+     * in the order of the fields as they are found in the database file.
+     */
+    synchronized String[] getRecordValues() {
+        String[] stringValues = values.clone();
+        return stringValues; 
+    }
+    
+    /**
+     * Reads the values for the current record from the database file using the provided DataInput.
+     * The amount of bytes read from the file is the same for each record and is known beforehand.
+     * 
+     * @param di The DataInput stream associated with the database file.
+     * @throws DatabaseRuntimeException
+     */
+    void read(DataInput di) {
+        //TODO: Cannot read or write while locked
+        // if (this.locked) throw new SecurityException();
+
+        try {
+            byte flag = di.readByte();
+            if (flag==0) {
+                this.setRecordValid();
+            } else if (flag==(byte)0xFF) {
+                this.setRecordDeleted();
+            } else {
+                // Ignore the error.
+            }
+
+            for (short i = 0; i < values.length; i++) {
+                values[i] = fields[i].readFieldValue(di);
+            }
+            // In case any errors occur, the record will not be marked clean
+            // and will be written to the database file at the first update
+            this.setRecordClean();
+        } catch (EOFException e) {
+            // Ignore the error. Just print it to the console.
+            e.printStackTrace();
+        } catch (IOException e) {
+            // Ignore the error. Just print it to the console.
+            e.printStackTrace();
+        }
+    }    
+
+    /**
+     * Reads the flag and the values for the current record from the provided buffer.
+     * The buffer must be positioned on the deletion flag of the record.
+     * 
+     * @param bb The buffer positioned on the record.
+     */
+    void read(ByteBuffer bb) {
+        byte flag = bb.get();
+        if (flag == (byte)0xFF) {
+            this.setRecordDeleted();
+        } else {
+            this.setRecordValid();
+        }
+        for (short i = 0; i < values.length; i++) {
+            values[i] = fields[i].readFieldValue(bb);
+        }
+        this.setRecordClean();
+    }
+    
+    /**
+     * Writes the flag and the values of the current record to the provided buffer.
+     * The buffer must be positioned on the deletion flag of the record.
+     * 
+     * @param bb The buffer positioned on the record.
+     */
+    synchronized void write(ByteBuffer bb) {
+        encode(bb);
+        this.setRecordClean();
+    }
+    
+    /**
+     * Writes the image of the current record (flag and values) to the provided buffer,
+     * without marking the record clean. Used to log changes before they reach the database file.
+     * 
+     * @param bb The buffer to write the image to, starting at its current position.
+     */
+    synchronized void encode(ByteBuffer bb) {
+        bb.put(this.isRecordDeleted() ? (byte)0xFF : (byte)0);
+        for (short i = 0; i < values.length; i++) {
+            fields[i].writeFieldValue(bb, values[i]);
+        }
+    }
+
+    /**
+     * Writes the flag and the values of the current record through the provided DataOutput stream
+     * and marks the record clean. Writing and marking clean happen atomically with respect to
+     * setRecordValues(), so that a concurrent change is never marked clean without being written.
+     * 
+     * @param dout The DataOutput stream positioned on the record.
+     * @throws DatabaseRuntimeException
+     */
+    synchronized void write(DataOutput dout) throws DatabaseRuntimeException {
+        //TODO: Cannot read or write while locked
+        // if (this.locked) throw new SecurityException();
+        
+        try {
+            dout.writeByte(this.isRecordDeleted() ? 0xFF : 0);
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IO exception encountered while writing record flag.");
+        }
+        for (short i = 0; i < values.length; i++) {
+            fields[i].writeFieldValue(dout, values[i]);
+        }
+        this.setRecordClean();
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append((this.isRecordDirty()?"*":" ") + (this.isRecordValid()?"V":"D") + " ");
+        for (short f = 0; f < DatabaseRecord.getNumberOfFields(); f++) {
+            sb.append(String.format("%-" + fields[f].getFieldLength() + "s", this.values[f]) + " ");
+        }
+        return sb.toString();
+    }
+}
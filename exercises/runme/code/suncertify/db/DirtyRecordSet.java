@@ -0,0 +1,65 @@
+package suncertify.db;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of the slots of the records that were changed in the memory cache
+ * and still have to be written to the database file.
+ *
+ * Writers only hold the lock of the set for the time it takes to set a bit, and the flusher only for the
+ * time it takes to take over the current set. Writing the records happens outside the lock, so
+ * flushing k dirty records costs k positional writes without blocking the writers or scanning the cache.
+ */
+class DirtyRecordSet {
+
+    private BitSet dirty = new BitSet();
+    private int count = 0;
+
+    /**
+     * Marks the record in the given slot as dirty.
+     */
+    synchronized void mark(int slot) {
+        if (!dirty.get(slot)) {
+            dirty.set(slot);
+            count++;
+        }
+    }
+
+    synchronized boolean contains(int slot) {
+        return dirty.get(slot);
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the dirty slots in ascending order and starts over with an empty set.
+     * Slots marked from now on are returned by the next call.
+     */
+    int[] drain() {
+        BitSet drained;
+        int drainedCount;
+        synchronized (this) {
+            drained = dirty;
+            drainedCount = count;
+            dirty = new BitSet();
+            count = 0;
+        }
+        int[] slots = new int[drainedCount];
+        int i = 0;
+        for (int slot = drained.nextSetBit(0); slot >= 0; slot = drained.nextSetBit(slot + 1)) {
+            slots[i++] = slot;
+        }
+        return slots;
+    }
+
+    /**
+     * Marks again slots returned by drain() that could not be written.
+     */
+    synchronized void restore(int[] slots) {
+        for (int slot : slots) {
+            mark(slot);
+        }
+    }
+}
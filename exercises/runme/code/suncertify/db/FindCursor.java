@@ -0,0 +1,117 @@
+package suncertify.db;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Returns the records matching search criteria one at a time, in the order of their slots.
+ * 
+ * Nothing is searched in advance: each call to next() checks the following slots in place until it
+ * finds a matching record, and only decodes the values of that record. The time to the first
+ * result therefore does not depend on how many records match, and the memory used does not grow
+ * with them either. Records changed while the cursor is open are seen as they are when reached.
+ * 
+ * A cursor returns at most a given number of records (a page). getPageToken() then gives a token
+ * to open the cursor for the next page with, which resumes right after the last returned record.
+ */
+public class FindCursor implements Iterator<FoundRecord> {
+    
+    private final RecordStore store;
+    // The number of the record in each slot; null when the record number is the slot
+    private final int[] recordNumbers;
+    private final byte[][] prefixes;
+    private int position;
+    private int remaining;
+    // The slot of the last record returned by next(), where the next page starts after
+    private int returnedSlot = -1;
+    // The record found ahead by hasNext() and its slot
+    private FoundRecord next = null;
+    private int nextSlot = -1;
+    private boolean exhausted = false;
+    
+    // There is no reason for instantiating this class from outside the package
+    // hence the constructor uses default access
+    FindCursor(RecordStore store, int[] recordNumbers, String[] criteria, int limit, String pageToken) {
+        this.store = store;
+        this.recordNumbers = recordNumbers;
+        this.prefixes = RecordStore.encodeCriteria(criteria);
+        this.remaining = (limit > 0) ? limit : Integer.MAX_VALUE;
+        this.position = parsePageToken(pageToken);
+        this.returnedSlot = position - 1;
+    }
+    
+    private static int parsePageToken(String pageToken) {
+        if (pageToken == null) {
+            return 0;
+        }
+        try {
+            int slot = Integer.parseInt(pageToken, Character.MAX_RADIX);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Invalid page token " + pageToken);
+            }
+            return slot;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page token " + pageToken);
+        }
+    }
+    
+    /**
+     * Looks for the next matching record, starting at the current position.
+     */
+    private void advance() {
+        // Slots added after the cursor was opened are only checked if their record number is known
+        int end = (recordNumbers == null) ? store.getRecordCount() 
+                : Math.min(store.getRecordCount(), recordNumbers.length);
+        while (position < end) {
+            int slot = position++;
+            if (store.matches(slot, prefixes)) {
+                try {
+                    String[] values = store.readRecordValues(slot);
+                    next = new FoundRecord((recordNumbers == null) ? slot : recordNumbers[slot], values);
+                    nextSlot = slot;
+                    return;
+                } catch (RecordNotFoundException e) {
+                    // Deleted in the meantime
+                }
+            }
+        }
+        exhausted = true;
+    }
+    
+    @Override
+    public boolean hasNext() {
+        if (next == null && remaining > 0 && !exhausted) {
+            advance();
+        }
+        return next != null;
+    }
+    
+    @Override
+    public FoundRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        FoundRecord found = next;
+        next = null;
+        returnedSlot = nextSlot;
+        remaining--;
+        return found;
+    }
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Returns the token to pass to Data.openCursor() to get the records after the last one returned,
+     * or null if there are none. Once the page is full, the next page may turn out to be empty.
+     */
+    public String getPageToken() {
+        if (exhausted || (remaining > 0 && !hasNext())) {
+            return null;
+        }
+        // A record already found by hasNext() but not returned yet belongs to the next page
+        return Integer.toString(returnedSlot + 1, Character.MAX_RADIX);
+    }
+}
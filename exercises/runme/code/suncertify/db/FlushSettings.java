@@ -0,0 +1,57 @@
+package suncertify.db;
+
+/**
+ * Settings of the background synchronizer that writes the changes in the memory cache to the database file.
+ * 
+ * The synchronizer writes the pending changes when any of the following happens:
+ *  - the flush interval has elapsed since the last flush
+ *  - the oldest pending change has been waiting for longer than the maximum dirty age
+ *  - the number of pending changes reaches the maximum number of dirty records
+ * When the number of pending changes reaches the back-pressure threshold, writers are made to wait
+ * until the synchronizer has caught up, so that the backlog cannot grow without bounds.
+ * 
+ * All durations are in milliseconds.
+ */
+public class FlushSettings {
+    private long flushInterval = 5000;
+    private long maxDirtyAge = 10000;
+    private int maxDirtyRecords = 1000;
+    private int backPressureThreshold = 10000;
+    
+    public long getFlushInterval() { return flushInterval; }
+    public long getMaxDirtyAge() { return maxDirtyAge; }
+    public int getMaxDirtyRecords() { return maxDirtyRecords; }
+    public int getBackPressureThreshold() { return backPressureThreshold; }
+    
+    public FlushSettings setFlushInterval(long flushInterval) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("The flush interval must be positive.");
+        }
+        this.flushInterval = flushInterval;
+        return this;
+    }
+    
+    public FlushSettings setMaxDirtyAge(long maxDirtyAge) {
+        if (maxDirtyAge <= 0) {
+            throw new IllegalArgumentException("The maximum dirty age must be positive.");
+        }
+        this.maxDirtyAge = maxDirtyAge;
+        return this;
+    }
+    
+    public FlushSettings setMaxDirtyRecords(int maxDirtyRecords) {
+        if (maxDirtyRecords <= 0) {
+            throw new IllegalArgumentException("The maximum number of dirty records must be positive.");
+        }
+        this.maxDirtyRecords = maxDirtyRecords;
+        return this;
+    }
+    
+    public FlushSettings setBackPressureThreshold(int backPressureThreshold) {
+        if (backPressureThreshold <= 0) {
+            throw new IllegalArgumentException("The back-pressure threshold must be positive.");
+        }
+        this.backPressureThreshold = backPressureThreshold;
+        return this;
+    }
+}
@@ -0,0 +1,56 @@
+package suncertify.db;
+
+/**
+ * Snapshot of the activity of the background synchronizer that writes the memory cache to the database file.
+ * Latencies are in microseconds.
+ */
+public class FlushStatistics {
+    private final long flushCount;
+    private final long lastFlushLatency;
+    private final long maxFlushLatency;
+    private final long totalFlushLatency;
+    private final int backlog;
+    private final int peakBacklog;
+    private final long throttledWrites;
+    private final long failedFlushes;
+    private final int recoveredChanges;
+    
+    // There is no reason for instantiating this class from outside the package
+    // hence the constructor uses default access
+    FlushStatistics(long flushCount, long lastFlushLatency, long maxFlushLatency, long totalFlushLatency,
+            int backlog, int peakBacklog, long throttledWrites, long failedFlushes, int recoveredChanges) {
+        this.flushCount = flushCount;
+        this.lastFlushLatency = lastFlushLatency;
+        this.maxFlushLatency = maxFlushLatency;
+        this.totalFlushLatency = totalFlushLatency;
+        this.backlog = backlog;
+        this.peakBacklog = peakBacklog;
+        this.throttledWrites = throttledWrites;
+        this.failedFlushes = failedFlushes;
+        this.recoveredChanges = recoveredChanges;
+    }
+    
+    public long getFlushCount() { return flushCount; }
+    public long getLastFlushLatency() { return lastFlushLatency; }
+    public long getMaxFlushLatency() { return maxFlushLatency; }
+    public long getAverageFlushLatency() { return (flushCount == 0) ? 0 : totalFlushLatency / flushCount; }
+    // Number of changes not yet written to the database file
+    public int getBacklog() { return backlog; }
+    public int getPeakBacklog() { return peakBacklog; }
+    // Number of writes that had to wait because the backlog reached the back-pressure threshold
+    public long getThrottledWrites() { return throttledWrites; }
+    // Number of flushes that could not write the changes to the database file; they were tried again later
+    public long getFailedFlushes() { return failedFlushes; }
+    // Number of changes of a previous session applied from the log when the database was opened
+    public int getRecoveredChanges() { return recoveredChanges; }
+    
+    @Override
+    public String toString() {
+        return "Flushes: " + flushCount 
+            + ", latency last/avg/max: " + lastFlushLatency + "/" + getAverageFlushLatency() + "/" + maxFlushLatency + " us"
+            + ", backlog: " + backlog + " (peak " + peakBacklog + ")"
+            + ", throttled writes: " + throttledWrites
+            + ", failed flushes: " + failedFlushes
+            + ", recovered changes: " + recoveredChanges;
+    }
+}
@@ -0,0 +1,19 @@
+package suncertify.db;
+
+/**
+ * A record returned by a FindCursor: its number together with its values.
+ */
+public class FoundRecord {
+    private final int recordNumber;
+    private final String[] values;
+    
+    // There is no reason for instantiating this class from outside the package
+    // hence the constructor uses default access
+    FoundRecord(int recordNumber, String[] values) {
+        this.recordNumber = recordNumber;
+        this.values = values;
+    }
+    
+    public int getRecordNumber() { return recordNumber; }
+    public String[] getValues() { return values.clone(); }
+}
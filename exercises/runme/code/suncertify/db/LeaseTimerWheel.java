@@ -0,0 +1,121 @@
+package suncertify.db;
+
+import java.util.*;
+
+/**
+ * Tells when the leases of record locks expire, using a hashed timer wheel.
+ *
+ * Time is cut in ticks and the wheel has one bucket per tick, reused every turn of the wheel.
+ * A lease goes to the bucket of the first tick at or after its deadline, so scheduling it costs
+ * the same whatever the number of leases; a lease more than one turn away stays in its bucket
+ * until the turn it expires in. A single thread goes from one tick to the next and hands the leases
+ * of the bucket that are due to the handler, which may give them a later deadline, e.g. when the
+ * lock was renewed in the meantime. Leases of locks released earlier are simply dropped by the handler,
+ * so releasing a lock does not have to find its lease.
+ */
+class LeaseTimerWheel implements Runnable {
+
+    /**
+     * Decides what happens to a lease whose deadline has passed.
+     */
+    interface ExpiryHandler {
+        /**
+         * @return The new deadline of the lease (System.nanoTime() based), or 0 if it is over.
+         */
+        long expire(int recNo, long cookie);
+    }
+
+    private static class Lease {
+        final int recNo;
+        final long cookie;
+        final long deadline;
+
+        Lease(int recNo, long cookie, long deadline) {
+            this.recNo = recNo;
+            this.cookie = cookie;
+            this.deadline = deadline;
+        }
+    }
+
+    private final ExpiryHandler handler;
+    private final long tickNanos;
+    private final List<List<Lease>> buckets;
+    private final long start = System.nanoTime();
+    // The next tick to process; ticks before it are done
+    private long nextTick = 1;
+    private boolean stopped = false;
+
+    /**
+     * @param tickNanos The length of a tick, i.e. how late a lease may be noticed to have expired.
+     * @param size The number of buckets; one turn of the wheel lasts size ticks.
+     */
+    LeaseTimerWheel(ExpiryHandler handler, long tickNanos, int size) {
+        this.handler = handler;
+        this.tickNanos = tickNanos;
+        this.buckets = new ArrayList<List<Lease>>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<Lease>());
+        }
+    }
+
+    /**
+     * Adds the lease of a lock, due at the given deadline (System.nanoTime() based).
+     */
+    synchronized void schedule(int recNo, long cookie, long deadline) {
+        // The first tick processed at or after the deadline
+        long tick = Math.max((deadline - start + tickNanos - 1) / tickNanos, nextTick);
+        buckets.get((int)(tick % buckets.size())).add(new Lease(recNo, cookie, deadline));
+    }
+
+    // The thread is woken up through notify(), like the cache synchronizer
+    synchronized void stop() {
+        stopped = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Waits for the next tick and takes the leases of its bucket that are due.
+     *
+     * @return The due leases, or null when the wheel is stopped.
+     */
+    private synchronized List<Lease> nextDueLeases() {
+        long wait;
+        while (!stopped && (wait = start + nextTick * tickNanos - System.nanoTime()) > 0) {
+            try {
+                this.wait(wait / 1000000, (int)(wait % 1000000));
+            } catch (InterruptedException e) {
+                // do nothing
+            }
+        }
+        if (stopped) {
+            return null;
+        }
+        List<Lease> bucket = buckets.get((int)(nextTick % buckets.size()));
+        nextTick++;
+        long now = System.nanoTime();
+        List<Lease> due = new ArrayList<Lease>();
+        // Leases of a later turn stay in the bucket
+        for (Iterator<Lease> i = bucket.iterator(); i.hasNext();) {
+            Lease lease = i.next();
+            if (lease.deadline <= now) {
+                due.add(lease);
+                i.remove();
+            }
+        }
+        return due;
+    }
+
+    @Override
+    public void run() {
+        List<Lease> due;
+        while ((due = nextDueLeases()) != null) {
+            // The handler takes the locks of the records; the wheel is not locked meanwhile
+            for (Lease lease : due) {
+                long deadline = handler.expire(lease.recNo, lease.cookie);
+                if (deadline != 0) {
+                    schedule(lease.recNo, lease.cookie, deadline);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package suncertify.db;
+
+/**
+ * Snapshot of the activity of the record locks. Times are in microseconds.
+ */
+public class LockStatistics {
+    private final long acquisitions;
+    private final long contendedAcquisitions;
+    private final long timeouts;
+    private final long expirations;
+    private final long totalHoldTime;
+    private final long maxHoldTime;
+    private final long totalWaitTime;
+    private final long maxWaitTime;
+    private final int lockedRecords;
+    private final int waitingThreads;
+    
+    // There is no reason for instantiating this class from outside the package
+    // hence the constructor uses default access
+    LockStatistics(long acquisitions, long contendedAcquisitions, long timeouts, long expirations,
+            long totalHoldTime, long maxHoldTime, long totalWaitTime, long maxWaitTime,
+            int lockedRecords, int waitingThreads) {
+        this.acquisitions = acquisitions;
+        this.contendedAcquisitions = contendedAcquisitions;
+        this.timeouts = timeouts;
+        this.expirations = expirations;
+        this.totalHoldTime = totalHoldTime;
+        this.maxHoldTime = maxHoldTime;
+        this.totalWaitTime = totalWaitTime;
+        this.maxWaitTime = maxWaitTime;
+        this.lockedRecords = lockedRecords;
+        this.waitingThreads = waitingThreads;
+    }
+    
+    public long getAcquisitions() { return acquisitions; }
+    // Acquisitions for which the thread had to wait for another holder
+    public long getContendedAcquisitions() { return contendedAcquisitions; }
+    public long getTimeouts() { return timeouts; }
+    // Locks taken away from their holder because their lease ended
+    public long getExpirations() { return expirations; }
+    // Hold times are accounted when locks are released
+    public long getAverageHoldTime() { 
+        long released = acquisitions - lockedRecords;
+        return (released <= 0) ? 0 : totalHoldTime / released; 
+    }
+    public long getMaxHoldTime() { return maxHoldTime; }
+    public long getAverageWaitTime() { 
+        return (contendedAcquisitions == 0) ? 0 : totalWaitTime / contendedAcquisitions; 
+    }
+    public long getMaxWaitTime() { return maxWaitTime; }
+    public int getLockedRecords() { return lockedRecords; }
+    public int getWaitingThreads() { return waitingThreads; }
+    
+    @Override
+    public String toString() {
+        return "Locks: " + acquisitions + " (" + contendedAcquisitions + " contended, " + timeouts + " timed out, " + expirations + " expired)"
+            + ", hold avg/max: " + getAverageHoldTime() + "/" + maxHoldTime + " us"
+            + ", wait avg/max: " + getAverageWaitTime() + "/" + maxWaitTime + " us"
+            + ", locked: " + lockedRecords + ", waiting: " + waitingThreads;
+    }
+}
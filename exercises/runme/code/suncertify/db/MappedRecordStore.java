@@ -0,0 +1,127 @@
+package suncertify.db;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Gives access to the records of a database file by mapping the file in memory.
+ *
+ * Opening the store only reads and checks the schema; records are never loaded into the heap.
+ * Each record is decoded directly from the mapped region at offset schemaSize + slot * recordSlotSize.
+ * Changes written to the regions reach the file when the operating system writes back the pages, or at force().
+ */
+class MappedRecordStore extends RecordStore {
+
+    // Number of records the file is extended by when a record is appended
+    static final int GROWTH_RECORDS = 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    MappedRecordStore(String dbPath) throws DatabaseRuntimeException {
+        RandomAccessFile raf = null;
+        boolean opened = false;
+        try {
+            raf = new RandomAccessFile(dbPath, "rw");
+            this.file = raf;
+            this.channel = file.getChannel();
+
+            // Only the schema is read at startup; it is small and has a fixed size
+            ByteBuffer schema = ByteBuffer.allocate(DatabaseRecord.getSchemaSize());
+            while (schema.hasRemaining()) {
+                if (channel.read(schema, schema.position()) < 0) {
+                    throw new DatabaseRuntimeException("EOF encountered while reading schema from database file.");
+                }
+            }
+            DatabaseRecord.readSchema(new DataInputStream(new ByteArrayInputStream(schema.array())));
+
+            // A trailing incomplete record is ignored, the same way the stream based reader would fail on it
+            long records = (channel.size() - DatabaseRecord.getSchemaSize()) / DatabaseRecord.getRecordSlotSize();
+            if (records > Integer.MAX_VALUE) {
+                throw new DatabaseRuntimeException("Too many records in database file.");
+            }
+            int count = (int)records;
+
+            ByteBuffer[] mapped = new ByteBuffer[getRegionCount(count)];
+            for (int r = 0; r < mapped.length; r++) {
+                mapped[r] = mapRegion(r, count);
+            }
+            this.regions = mapped;
+            this.recordCount = count;
+            opened = true;
+        } catch (FileNotFoundException e) {
+            throw new DatabaseRuntimeException("FileNotFoundException while mapping database.");
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while mapping database.");
+        } finally {
+            if (raf != null && !opened) {
+                // The file could not be mapped, e.g. its schema is not the expected one
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Extends the file by at least GROWTH_RECORDS records at once, so that mapping the file again
+     * is rare. The new records are written to the file as deleted records and forced to disk before
+     * they are mapped: should the process crash, the file never holds records that nobody created.
+     */
+    @Override
+    synchronized int grow(int minCount) throws DatabaseRuntimeException {
+        int count = recordCount;
+        if (minCount <= count) {
+            return count;
+        }
+        int newCount = Math.max(minCount, count + GROWTH_RECORDS);
+        try {
+            ByteBuffer filler = ByteBuffer.allocate((newCount - count) * DatabaseRecord.getRecordSlotSize());
+            fillDeleted(filler, 0, filler.capacity());
+            long offset = getRecordOffset(count);
+            while (filler.hasRemaining()) {
+                channel.write(filler, offset + filler.position());
+            }
+            channel.force(false);
+            
+            // The last region is mapped again with its new size; the old mapping stays valid
+            // for whoever still uses it and shares the same pages of the file
+            ByteBuffer[] grown = Arrays.copyOf(regions, getRegionCount(newCount));
+            for (int r = count / RECORDS_PER_REGION; r < grown.length; r++) {
+                grown[r] = mapRegion(r, newCount);
+            }
+            regions = grown;
+            recordCount = newCount;
+            return newCount;
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while extending database file.");
+        }
+    }
+    
+    private ByteBuffer mapRegion(int region, int count) throws IOException {
+        int regionRecords = Math.min(RECORDS_PER_REGION, count - region * RECORDS_PER_REGION);
+        return channel.map(FileChannel.MapMode.READ_WRITE, getRecordOffset(region * RECORDS_PER_REGION),
+                (long)regionRecords * DatabaseRecord.getRecordSlotSize());
+    }
+    
+    void force() {
+        for (ByteBuffer region : regions) {
+            ((MappedByteBuffer)region).force();
+        }
+    }
+
+    @Override
+    void close() throws DatabaseRuntimeException {
+        force();
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while closing database.");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package suncertify.db;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Holds a copy of all the records of a database file in memory, as byte slices in large buffers.
+ * 
+ * The whole file is read at startup with bulk reads, the regions in parallel. Compared to an object per
+ * record holding an array of strings, the records take little more memory than they take in the file,
+ * and the garbage collector only sees a handful of large buffers whatever the number of records.
+ * The buffers are either arrays on the heap or direct buffers outside of it.
+ */
+class MemoryRecordStore extends RecordStore {
+    
+    private final boolean direct;
+    
+    /**
+     * Reads the records of the database file, which must be positioned right after the schema.
+     * 
+     * @param channel The channel of the database file.
+     * @param direct When true, the records are kept outside of the heap, in direct buffers.
+     */
+    MemoryRecordStore(final FileChannel channel, boolean direct) throws DatabaseRuntimeException {
+        this.direct = direct;
+        long records;
+        try {
+            records = (channel.size() - DatabaseRecord.getSchemaSize()) / DatabaseRecord.getRecordSlotSize();
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while reading database.");
+        }
+        if (records > Integer.MAX_VALUE) {
+            throw new DatabaseRuntimeException("Too many records in database file.");
+        }
+        final int count = (int)records;
+        
+        // Positional reads do not share a file pointer, so the regions can be read in parallel
+        final ByteBuffer[] loaded = new ByteBuffer[getRegionCount(count)];
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int r = 0; r < loaded.length; r++) {
+            final int region = r;
+            loaded[r] = allocateRegion();
+            tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+                @Override
+                public void run() {
+                    readRegion(channel, loaded[region], region, count);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        this.regions = loaded;
+        this.recordCount = count;
+    }
+    
+    private static void readRegion(FileChannel channel, ByteBuffer region, int r, int count) {
+        int regionRecords = Math.min(RECORDS_PER_REGION, count - r * RECORDS_PER_REGION);
+        region.limit(regionRecords * DatabaseRecord.getRecordSlotSize());
+        long position = getRecordOffset(r * RECORDS_PER_REGION);
+        try {
+            while (region.hasRemaining()) {
+                if (channel.read(region, position + region.position()) < 0) {
+                    throw new DatabaseRuntimeException("EOF encountered while reading records.");
+                }
+            }
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while reading database.");
+        }
+        region.clear();
+    }
+    
+    /**
+     * Grows the store by exactly the number of records asked for; the regions are allocated
+     * with their full size, so only the first record of a region allocates memory.
+     */
+    @Override
+    synchronized int grow(int minCount) {
+        int count = recordCount;
+        if (minCount <= count) {
+            return count;
+        }
+        ByteBuffer[] grown = regions;
+        if (getRegionCount(minCount) > grown.length) {
+            grown = Arrays.copyOf(grown, getRegionCount(minCount));
+            for (int r = regions.length; r < grown.length; r++) {
+                grown[r] = allocateRegion();
+            }
+        }
+        for (int slot = count; slot < minCount; slot++) {
+            int offset = (slot % RECORDS_PER_REGION) * DatabaseRecord.getRecordSlotSize();
+            fillDeleted(grown[slot / RECORDS_PER_REGION], offset, offset + DatabaseRecord.getRecordSlotSize());
+        }
+        regions = grown;
+        recordCount = minCount;
+        return minCount;
+    }
+    
+    private ByteBuffer allocateRegion() {
+        int size = RECORDS_PER_REGION * DatabaseRecord.getRecordSlotSize();
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+    
+    @Override
+    void close() {
+        regions = new ByteBuffer[0];
+        recordCount = 0;
+    }
+}
@@ -0,0 +1,86 @@
+package suncertify.db;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scans all record slots for records matching a condition, either sequentially
+ * or split in ranges of slots that are checked in parallel by a fork-join pool.
+ * 
+ * The scan is used by find() when the indexes cannot narrow down the search.
+ * The result is the sorted array of the numbers of the matching records.
+ */
+class ParallelScanner {
+    
+    /**
+     * Checks the record in a slot. Implementations must be safe to call from several threads at once.
+     */
+    interface SlotMatcher {
+        /**
+         * @return The number of the record in the slot if it matches, -1 otherwise.
+         */
+        int match(int slot);
+    }
+    
+    // Ranges smaller than this are not split any further
+    private static final int MIN_RANGE_SIZE = 4096;
+    
+    static int[] scanSequential(int slotCount, SlotMatcher matcher) {
+        int[] result = scanRange(0, slotCount, matcher);
+        Arrays.sort(result);
+        return result;
+    }
+    
+    static int[] scanParallel(int slotCount, SlotMatcher matcher) {
+        int[] result = ForkJoinPool.commonPool().invoke(new ScanTask(0, slotCount, matcher));
+        // Ranges are concatenated in slot order, which is not necessarily the order of the record numbers
+        Arrays.sort(result);
+        return result;
+    }
+    
+    private static int[] scanRange(int from, int to, SlotMatcher matcher) {
+        int[] matches = new int[Math.min(to - from, 64)];
+        int count = 0;
+        for (int slot = from; slot < to; slot++) {
+            int recNo = matcher.match(slot);
+            if (recNo >= 0) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, Math.min(to - from, count * 2));
+                }
+                matches[count++] = recNo;
+            }
+        }
+        return (count == matches.length) ? matches : Arrays.copyOf(matches, count);
+    }
+    
+    private static class ScanTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 4113370271856924566L;
+        
+        private final int from;
+        private final int to;
+        private final SlotMatcher matcher;
+        
+        ScanTask(int from, int to, SlotMatcher matcher) {
+            this.from = from;
+            this.to = to;
+            this.matcher = matcher;
+        }
+        
+        @Override
+        protected int[] compute() {
+            if (to - from <= MIN_RANGE_SIZE) {
+                return scanRange(from, to, matcher);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(from, middle, matcher);
+            left.fork();
+            int[] right = new ScanTask(middle, to, matcher).compute();
+            int[] leftResult = left.join();
+            
+            int[] merged = Arrays.copyOf(leftResult, leftResult.length + right.length);
+            System.arraycopy(right, 0, merged, leftResult.length, right.length);
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package suncertify.db;
+
+/**
+ * Told about every change made to the records of a database, e.g. to keep copies of the records
+ * up to date. It is called by the thread making the change, right after the new values can be read,
+ * so it must be quick and must not call the database.
+ */
+public interface RecordChangeListener {
+    /**
+     * The record was created, updated or deleted.
+     */
+    public void recordChanged(int recNo);
+}
@@ -0,0 +1,94 @@
+package suncertify.db;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Finds the slot of a record from its number.
+ *
+ * Record numbers are handed out consecutively, so the slots are kept in an array indexed by the
+ * record number minus the first number: finding a slot is a single array access, without boxing
+ * or tree walking. The array is either on the heap or, for databases kept outside of the heap,
+ * in a direct buffer.
+ *
+ * Readers do not lock: the array only grows by being copied and the copy is published once
+ * complete. Entries hold the slot plus one, so that a zero entry, as allocated, means no record.
+ */
+class RecordDirectory {
+
+    private final int firstRecordNumber;
+    private final boolean direct;
+
+    // Only one of them is used, depending on direct
+    private volatile int[] heapSlots;
+    private volatile IntBuffer directSlots;
+
+    /**
+     * @param firstRecordNumber The lowest record number the directory will hold.
+     * @param capacity The number of record numbers to make room for.
+     * @param direct When true, the slots are kept outside of the heap.
+     */
+    RecordDirectory(int firstRecordNumber, int capacity, boolean direct) {
+        this.firstRecordNumber = firstRecordNumber;
+        this.direct = direct;
+        if (direct) {
+            directSlots = allocateDirect(capacity);
+        } else {
+            heapSlots = new int[capacity];
+        }
+    }
+
+    private static IntBuffer allocateDirect(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Returns the slot of the record with the given number, or -1 if there is no such record number.
+     */
+    int find(int recNo) {
+        int i = recNo - firstRecordNumber;
+        if (i < 0) {
+            return -1;
+        }
+        if (direct) {
+            IntBuffer slots = directSlots;
+            return (i < slots.capacity()) ? slots.get(i) - 1 : -1;
+        }
+        int[] slots = heapSlots;
+        return (i < slots.length) ? slots[i] - 1 : -1;
+    }
+
+    /**
+     * Gives the record with the given number the given slot, making room for it if needed.
+     */
+    synchronized void put(int recNo, int slot) {
+        int i = recNo - firstRecordNumber;
+        if (i < 0) {
+            throw new IllegalArgumentException("Record number " + recNo + " is below the first record number "
+                    + firstRecordNumber);
+        }
+        if (direct) {
+            IntBuffer slots = directSlots;
+            if (i >= slots.capacity()) {
+                IntBuffer grown = allocateDirect(Math.max(i + 1, slots.capacity() * 2));
+                slots.rewind();
+                grown.put(slots);
+                grown.put(i, slot + 1);
+                directSlots = grown;
+            } else {
+                slots.put(i, slot + 1);
+            }
+        } else {
+            int[] slots = heapSlots;
+            if (i >= slots.length) {
+                int[] grown = new int[Math.max(i + 1, slots.length * 2)];
+                System.arraycopy(slots, 0, grown, 0, slots.length);
+                grown[i] = slot + 1;
+                heapSlots = grown;
+            } else {
+                slots[i] = slot + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package suncertify.db;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indexes on the values of the fields of the records, used by find() to avoid scanning all records.
+ * 
+ * There is one sorted index per field, mapping each distinct value to the numbers of the records
+ * having that value. The records whose value starts with a given prefix are found in the range
+ * of the index going from the prefix (inclusive) to the prefix followed by the highest character (exclusive).
+ * The indexes are kept up to date on every change, under a write lock; searches share a read lock.
+ * 
+ * Planning:
+ * The number of records matching each criterion is counted in the indexes, stopping as soon as it exceeds
+ * the smallest count found so far. The records matching the most selective criterion are the candidates,
+ * which are then intersected with the records matching the next criteria, from the most to the least selective.
+ * A criterion matching many more records than there are candidates left is not worth intersecting with;
+ * the candidates returned are thus a superset of the matching records, and the caller must check them.
+ */
+class RecordIndexes {
+    
+    // When a criterion matches more than this many times the number of candidates,
+    // checking the candidates directly is cheaper than intersecting with it
+    private static final int INTERSECTION_FACTOR = 8;
+    
+    private final List<NavigableMap<String, RecordNumberSet>> indexes 
+        = new ArrayList<NavigableMap<String, RecordNumberSet>>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    RecordIndexes() {
+        for (short f = 0; f < DatabaseRecord.getNumberOfFields(); f++) {
+            indexes.add(new TreeMap<String, RecordNumberSet>());
+        }
+    }
+    
+    /**
+     * Indexes all records of a store. The index of each field is built by a task of its own,
+     * which decodes the values of that field only; the tasks run in parallel in the common fork-join pool.
+     * 
+     * @param recordNumbers The number of the record in each slot, or null when the record number is the slot.
+     */
+    static RecordIndexes build(final RecordStore store, final int[] recordNumbers) {
+        final RecordIndexes result = new RecordIndexes();
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (short f = 0; f < DatabaseRecord.getNumberOfFields(); f++) {
+            final short field = f;
+            tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+                @Override
+                public void run() {
+                    result.indexField(field, store, recordNumbers);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        return result;
+    }
+    
+    /**
+     * Fills the index of one field. Only called while the indexes are built, before they are shared.
+     */
+    private void indexField(short field, RecordStore store, int[] recordNumbers) {
+        NavigableMap<String, RecordNumberSet> index = indexes.get(field);
+        int count = (recordNumbers == null) ? store.getRecordCount() 
+                : Math.min(store.getRecordCount(), recordNumbers.length);
+        byte[] buffer = new byte[DatabaseRecord.getFieldDefinition(field).getFieldLength()];
+        for (int slot = 0; slot < count; slot++) {
+            if (store.isRecordDeleted(slot)) {
+                continue;
+            }
+            String value = normalize(store.readFieldValueUnlocked(slot, field, buffer));
+            RecordNumberSet numbers = index.get(value);
+            if (numbers == null) {
+                numbers = new RecordNumberSet();
+                index.put(value, numbers);
+            }
+            numbers.add((recordNumbers == null) ? slot : recordNumbers[slot]);
+        }
+    }
+    
+    /**
+     * Adds a record to the indexes.
+     * 
+     * @param recNo The number of the record.
+     * @param values The values of the record, in the order of the fields.
+     */
+    void add(int recNo, String[] values) {
+        lock.writeLock().lock();
+        try {
+            for (int f = 0; f < indexes.size(); f++) {
+                String value = normalize(values[f]);
+                RecordNumberSet numbers = indexes.get(f).get(value);
+                if (numbers == null) {
+                    numbers = new RecordNumberSet();
+                    indexes.get(f).put(value, numbers);
+                }
+                numbers.add(recNo);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Removes a record from the indexes.
+     * 
+     * @param recNo The number of the record.
+     * @param values The values under which the record was indexed.
+     */
+    void remove(int recNo, String[] values) {
+        lock.writeLock().lock();
+        try {
+            for (int f = 0; f < indexes.size(); f++) {
+                String value = normalize(values[f]);
+                RecordNumberSet numbers = indexes.get(f).get(value);
+                if (numbers != null) {
+                    numbers.remove(recNo);
+                    if (numbers.isEmpty()) {
+                        indexes.get(f).remove(value);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Moves a record from its old values to its new values in the indexes.
+     * Only the indexes of the fields whose value changed are touched.
+     */
+    void update(int recNo, String[] oldValues, String[] newValues) {
+        lock.writeLock().lock();
+        try {
+            for (int f = 0; f < indexes.size(); f++) {
+                String oldValue = normalize(oldValues[f]);
+                String newValue = normalize(newValues[f]);
+                if (oldValue.equals(newValue)) {
+                    continue;
+                }
+                RecordNumberSet numbers = indexes.get(f).get(oldValue);
+                if (numbers != null) {
+                    numbers.remove(recNo);
+                    if (numbers.isEmpty()) {
+                        indexes.get(f).remove(oldValue);
+                    }
+                }
+                numbers = indexes.get(f).get(newValue);
+                if (numbers == null) {
+                    numbers = new RecordNumberSet();
+                    indexes.get(f).put(newValue, numbers);
+                }
+                numbers.add(recNo);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the numbers of the records that may match the given criteria, in ascending order.
+     * All records matching the criteria are returned, but some of the returned records may not match
+     * all criteria; the caller must check them.
+     * When none of the criteria can be looked up in the indexes (e.g. they are all null), null is returned
+     * and the caller has to check all records.
+     * 
+     * @param criteria The prefixes to search for, per field; null matches any value.
+     */
+    int[] findCandidates(String[] criteria) {
+        lock.readLock().lock();
+        try {
+            // Count the matches of each criterion, bounded by the most selective one found so far
+            List<Integer> usable = new ArrayList<Integer>();
+            final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+            int best = Integer.MAX_VALUE;
+            for (int f = 0; f < indexes.size() && criteria != null && f < criteria.length; f++) {
+                if (criteria[f] == null || criteria[f].length() == 0) {
+                    continue;
+                }
+                int count = countMatches(f, criteria[f], best);
+                if (count == 0) {
+                    return new int[0];
+                }
+                usable.add(f);
+                counts.put(f, count);
+                best = Math.min(best, count);
+            }
+            if (usable.isEmpty()) {
+                return null;
+            }
+            
+            // Most selective first
+            Collections.sort(usable, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer f1, Integer f2) {
+                    return counts.get(f1).compareTo(counts.get(f2));
+                }
+            });
+            
+            int[] candidates = collectMatches(usable.get(0), criteria[usable.get(0)]);
+            for (int i = 1; i < usable.size() && candidates.length > 0; i++) {
+                int f = usable.get(i);
+                // Counts beyond the best one are lower bounds only; recount with the actual limit
+                long limit = (long)candidates.length * INTERSECTION_FACTOR;
+                if (countMatches(f, criteria[f], (int)Math.min(limit, Integer.MAX_VALUE)) > limit) {
+                    break;
+                }
+                candidates = intersect(candidates, collectMatches(f, criteria[f]));
+            }
+            return candidates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns true if the given value matches the given criterion (null matches any value).
+     */
+    static boolean matches(String value, String criterion) {
+        return criterion == null || normalize(value).startsWith(criterion);
+    }
+    
+    private static String normalize(String value) {
+        return (value == null) ? "" : value;
+    }
+    
+    private SortedMap<String, RecordNumberSet> getRange(int field, String prefix) {
+        return indexes.get(field).subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+    
+    /**
+     * Counts the records whose value for the given field starts with the given prefix,
+     * stopping as soon as the count exceeds the given limit.
+     */
+    private int countMatches(int field, String prefix, int limit) {
+        int count = 0;
+        for (RecordNumberSet numbers : getRange(field, prefix).values()) {
+            count += numbers.size();
+            if (count > limit) {
+                break;
+            }
+        }
+        return count;
+    }
+    
+    private int[] collectMatches(int field, String prefix) {
+        SortedMap<String, RecordNumberSet> range = getRange(field, prefix);
+        int count = 0;
+        for (RecordNumberSet numbers : range.values()) {
+            count += numbers.size();
+        }
+        int[] matches = new int[count];
+        int position = 0;
+        for (RecordNumberSet numbers : range.values()) {
+            position = numbers.copyTo(matches, position);
+        }
+        // Each record has a single value per field, so there are no duplicates to remove
+        if (range.size() > 1) {
+            Arrays.sort(matches);
+        }
+        return matches;
+    }
+    
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
@@ -0,0 +1,369 @@
+package suncertify.db;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the locks on the records, identified by their record numbers.
+ * 
+ * The locks are spread over a fixed number of stripes, each with its own lock, so that threads
+ * working on different records rarely contend. A stripe lock is only held for the few instructions
+ * it takes to look at or change the state of a lock, never while a thread is waiting. It is a
+ * ReentrantLock rather than a monitor, so that a virtual thread contending for it is unmounted
+ * instead of pinning its carrier thread.
+ * 
+ * Each locked record has a FIFO queue of waiting threads. A waiting thread is parked with LockSupport
+ * and consumes no CPU. When the record is unlocked, the lock is handed over directly to the first waiter,
+ * which is the only thread woken up; the others keep sleeping. The order in which the lock is granted is
+ * thus the order in which it was requested.
+ * 
+ * Locks may be given a lease: a lock that is neither used nor renewed for the lease time is taken
+ * away from its holder and handed over to the first waiter, as if it had been unlocked, so that a
+ * client that died holding a lock does not keep the record locked forever. The leases are kept
+ * in a timer wheel; renewing a lease only moves its deadline, which the wheel looks at when
+ * the old deadline comes.
+ */
+class RecordLockManager implements LeaseTimerWheel.ExpiryHandler {
+    
+    private static final int STRIPE_COUNT = 64;
+    
+    // The wheel notices expired leases within a tick; one turn lasts about a minute
+    private static final long LEASE_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int LEASE_WHEEL_SIZE = 512;
+    
+    private static class Waiter {
+        final Thread thread = Thread.currentThread();
+        final long cookie;
+        final long since = System.nanoTime();
+        // Only changed under the lock of the stripe, but read by the waiter in between parks
+        volatile boolean granted = false;
+        
+        Waiter(long cookie) {
+            this.cookie = cookie;
+        }
+    }
+    
+    private static class RecordLock {
+        long cookie;
+        long lockedSince;
+        // When the lease of the holder ends; 0 when the lock has no lease
+        long expiresAt;
+        final Deque<Waiter> waiters = new ArrayDeque<Waiter>();
+    }
+    
+    private static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<Integer, RecordLock> locks = new HashMap<Integer, RecordLock>();
+        
+        // Statistics, kept per stripe so that they are updated under the stripe lock
+        long acquisitions = 0;
+        long contendedAcquisitions = 0;
+        long timeouts = 0;
+        long expirations = 0;
+        long totalHoldTime = 0;
+        long maxHoldTime = 0;
+        long totalWaitTime = 0;
+        long maxWaitTime = 0;
+        int waiting = 0;
+    }
+    
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    
+    // 0 when locks have no lease
+    private volatile long leaseNanos = 0;
+    // Only created when leases are enabled
+    private volatile LeaseTimerWheel leaseWheel = null;
+    private Thread leaseThread = null;
+    
+    RecordLockManager() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+    
+    private Stripe getStripe(int recNo) {
+        // Spread consecutive record numbers over different stripes
+        int h = recNo * 0x9E3779B9;
+        return stripes[(h >>> 16) & (STRIPE_COUNT - 1)];
+    }
+    
+    /**
+     * Sets the lease of the locks acquired from now on; a time of 0 gives them no lease.
+     */
+    synchronized void setLease(long time, TimeUnit unit) {
+        leaseNanos = Math.max(unit.toNanos(time), 0);
+        if (leaseNanos > 0 && leaseWheel == null) {
+            leaseWheel = new LeaseTimerWheel(this, LEASE_TICK_NANOS, LEASE_WHEEL_SIZE);
+            leaseThread = new Thread(leaseWheel, "Lock lease timer");
+            leaseThread.setDaemon(true);
+            leaseThread.start();
+        }
+    }
+    
+    /**
+     * Stops the expiry of leases. Locks held are kept.
+     */
+    synchronized void close() {
+        if (leaseWheel == null) {
+            return;
+        }
+        leaseWheel.stop();
+        try {
+            leaseThread.join();
+        } catch (InterruptedException e) {
+            // do nothing
+        }
+        leaseWheel = null;
+        leaseThread = null;
+    }
+    
+    /**
+     * Gives the lock to the holder of the given cookie, with a new lease if leases are enabled.
+     * Must be called under the lock of the stripe.
+     */
+    private void grant(RecordLock rl, int recNo, long cookie, long now) {
+        rl.cookie = cookie;
+        rl.lockedSince = now;
+        long lease = leaseNanos;
+        LeaseTimerWheel wheel = leaseWheel;
+        if (lease > 0 && wheel != null) {
+            rl.expiresAt = now + lease;
+            wheel.schedule(recNo, cookie, rl.expiresAt);
+        } else {
+            rl.expiresAt = 0;
+        }
+    }
+    
+    /**
+     * Locks the record for the holder of the given cookie, waiting as long as it takes.
+     * Interrupting the waiting thread does not make it give up; the interrupt status is kept.
+     */
+    void lock(int recNo, long cookie) {
+        tryLock(recNo, cookie, -1);
+    }
+    
+    /**
+     * Locks the record for the holder of the given cookie, waiting at most the given time.
+     * 
+     * @return True if the lock was acquired, false if the time elapsed first.
+     */
+    boolean tryLock(int recNo, long cookie, long timeout, TimeUnit unit) {
+        return tryLock(recNo, cookie, Math.max(unit.toNanos(timeout), 0));
+    }
+    
+    /**
+     * @param timeout The maximum waiting time in nanoseconds; negative to wait without limit.
+     */
+    private boolean tryLock(int recNo, long cookie, long timeout) {
+        Stripe stripe = getStripe(recNo);
+        Waiter waiter;
+        stripe.lock.lock();
+        try {
+            RecordLock rl = stripe.locks.get(recNo);
+            if (rl == null) {
+                rl = new RecordLock();
+                grant(rl, recNo, cookie, System.nanoTime());
+                stripe.locks.put(recNo, rl);
+                stripe.acquisitions++;
+                return true;
+            }
+            if (timeout == 0) {
+                stripe.timeouts++;
+                return false;
+            }
+            waiter = new Waiter(cookie);
+            rl.waiters.addLast(waiter);
+            stripe.waiting++;
+        } finally {
+            stripe.lock.unlock();
+        }
+        
+        boolean interrupted = false;
+        long deadline = waiter.since + timeout;
+        while (!waiter.granted) {
+            if (timeout < 0) {
+                LockSupport.park(this);
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    stripe.lock.lock();
+                    try {
+                        // The lock may have been handed over just before the deadline
+                        if (!waiter.granted) {
+                            stripe.locks.get(recNo).waiters.remove(waiter);
+                            stripe.waiting--;
+                            stripe.timeouts++;
+                            break;
+                        }
+                    } finally {
+                        stripe.lock.unlock();
+                    }
+                    continue;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            // A pending interrupt would make park() return immediately; remember it for later
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return waiter.granted;
+    }
+    
+    /**
+     * Releases the lock on the record and hands it over to the first waiting thread, if any.
+     * 
+     * @throws SecurityException When the record is not locked with the given cookie.
+     */
+    void unlock(int recNo, long cookie) throws SecurityException {
+        Stripe stripe = getStripe(recNo);
+        Waiter next;
+        stripe.lock.lock();
+        try {
+            RecordLock rl = stripe.locks.get(recNo);
+            if (rl == null || rl.cookie != cookie) {
+                throw new SecurityException();
+            }
+            next = release(stripe, recNo, rl, System.nanoTime());
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (next != null) {
+            LockSupport.unpark(next.thread);
+        }
+    }
+    
+    /**
+     * Takes the lock from its holder and hands it over to the first waiter, if any.
+     * Must be called under the lock of the stripe; the waiter returned must be unparked afterwards.
+     */
+    private Waiter release(Stripe stripe, int recNo, RecordLock rl, long now) {
+        long held = now - rl.lockedSince;
+        stripe.totalHoldTime += held;
+        stripe.maxHoldTime = Math.max(stripe.maxHoldTime, held);
+        
+        Waiter next = rl.waiters.pollFirst();
+        if (next == null) {
+            stripe.locks.remove(recNo);
+            return null;
+        }
+        grant(rl, recNo, next.cookie, now);
+        long waited = now - next.since;
+        stripe.totalWaitTime += waited;
+        stripe.maxWaitTime = Math.max(stripe.maxWaitTime, waited);
+        stripe.acquisitions++;
+        stripe.contendedAcquisitions++;
+        stripe.waiting--;
+        next.granted = true;
+        return next;
+    }
+    
+    /**
+     * Called by the lease timer when the lease of a lock may have ended. If the lock is still held
+     * with the cookie and was not renewed, it is released.
+     */
+    @Override
+    public long expire(int recNo, long cookie) {
+        Stripe stripe = getStripe(recNo);
+        Waiter next;
+        stripe.lock.lock();
+        try {
+            RecordLock rl = stripe.locks.get(recNo);
+            if (rl == null || rl.cookie != cookie || rl.expiresAt == 0) {
+                // Released or handed over since; the new holder has a lease of its own
+                return 0;
+            }
+            long now = System.nanoTime();
+            if (rl.expiresAt > now) {
+                return rl.expiresAt;
+            }
+            stripe.expirations++;
+            next = release(stripe, recNo, rl, now);
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (next != null) {
+            LockSupport.unpark(next.thread);
+        }
+        return 0;
+    }
+    
+    /**
+     * Returns true if the record is currently locked with the given cookie; if it is,
+     * its lease, if any, starts over.
+     */
+    boolean renew(int recNo, long cookie) {
+        Stripe stripe = getStripe(recNo);
+        stripe.lock.lock();
+        try {
+            RecordLock rl = stripe.locks.get(recNo);
+            if (rl == null || rl.cookie != cookie) {
+                return false;
+            }
+            long lease = leaseNanos;
+            if (rl.expiresAt != 0 && lease > 0) {
+                rl.expiresAt = System.nanoTime() + lease;
+            }
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns true if the record is currently locked with the given cookie.
+     */
+    boolean isLockedBy(int recNo, long cookie) {
+        Stripe stripe = getStripe(recNo);
+        stripe.lock.lock();
+        try {
+            RecordLock rl = stripe.locks.get(recNo);
+            return rl != null && rl.cookie == cookie;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns true if the record is currently locked by anyone.
+     */
+    boolean isLocked(int recNo) {
+        Stripe stripe = getStripe(recNo);
+        stripe.lock.lock();
+        try {
+            return stripe.locks.containsKey(recNo);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+    
+    LockStatistics getStatistics() {
+        long acquisitions = 0, contended = 0, timeouts = 0, expirations = 0;
+        long totalHold = 0, maxHold = 0, totalWait = 0, maxWait = 0;
+        int locked = 0, waiting = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                acquisitions += stripe.acquisitions;
+                contended += stripe.contendedAcquisitions;
+                timeouts += stripe.timeouts;
+                expirations += stripe.expirations;
+                totalHold += stripe.totalHoldTime;
+                maxHold = Math.max(maxHold, stripe.maxHoldTime);
+                totalWait += stripe.totalWaitTime;
+                maxWait = Math.max(maxWait, stripe.maxWaitTime);
+                locked += stripe.locks.size();
+                waiting += stripe.waiting;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return new LockStatistics(acquisitions, contended, timeouts, expirations,
+                totalHold / 1000, maxHold / 1000, totalWait / 1000, maxWait / 1000, locked, waiting);
+    }
+}
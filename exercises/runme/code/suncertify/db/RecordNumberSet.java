@@ -0,0 +1,72 @@
+package suncertify.db;
+
+import java.util.Arrays;
+
+/**
+ * Set of record numbers kept as a sorted array of primitive ints.
+ * 
+ * Record numbers are handed out in increasing order, so adding the number of a new record
+ * is usually an append. Membership tests are binary searches. Not thread safe.
+ */
+class RecordNumberSet {
+    private int[] numbers = new int[4];
+    private int size = 0;
+    
+    int size() {
+        return size;
+    }
+    
+    boolean isEmpty() {
+        return size == 0;
+    }
+    
+    boolean contains(int recNo) {
+        return Arrays.binarySearch(numbers, 0, size, recNo) >= 0;
+    }
+    
+    void add(int recNo) {
+        if (size > 0 && numbers[size - 1] < recNo) {
+            ensureCapacity(size + 1);
+            numbers[size++] = recNo;
+            return;
+        }
+        int i = Arrays.binarySearch(numbers, 0, size, recNo);
+        if (i >= 0) {
+            return;
+        }
+        i = -i - 1;
+        ensureCapacity(size + 1);
+        System.arraycopy(numbers, i, numbers, i + 1, size - i);
+        numbers[i] = recNo;
+        size++;
+    }
+    
+    void remove(int recNo) {
+        int i = Arrays.binarySearch(numbers, 0, size, recNo);
+        if (i < 0) {
+            return;
+        }
+        System.arraycopy(numbers, i + 1, numbers, i, size - i - 1);
+        size--;
+    }
+    
+    /**
+     * Copies the record numbers, in ascending order, to the given array starting at the given position.
+     * 
+     * @return The position following the last copied number.
+     */
+    int copyTo(int[] target, int position) {
+        System.arraycopy(numbers, 0, target, position, size);
+        return position + size;
+    }
+    
+    int[] toArray() {
+        return Arrays.copyOf(numbers, size);
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > numbers.length) {
+            numbers = Arrays.copyOf(numbers, Math.max(capacity, numbers.length * 2));
+        }
+    }
+}
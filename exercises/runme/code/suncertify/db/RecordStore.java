@@ -0,0 +1,341 @@
+package suncertify.db;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Holds the records of a database file as fixed-size byte slices, exactly as they are laid out in the file:
+ * the deletion flag followed by the values of the fields, padded with spaces.
+ * 
+ * Each record is addressed by its slot, i.e. its position in the file after the schema. The slices are
+ * kept in regions of a fixed number of records, so that a record never spans two regions and no region
+ * exceeds the 2GB a ByteBuffer can address. How the regions are backed (heap, direct memory or a mapped
+ * file) is up to the subclasses.
+ * 
+ * Values are only decoded when they are asked for, one record or one field at a time; searching compares
+ * the criteria with the bytes of the fields. Besides the regions, the store allocates nothing per record.
+ * 
+ * The region buffers are never repositioned; every access works on a duplicate of the region or uses
+ * absolute gets. Writing a record holds the write lock of a stripe of slots. Readers do not lock: they
+ * read optimistically and check afterwards that no write to the stripe started meanwhile, reading again
+ * if one did, so that nobody sees a record half written and readers never hold writers back. Only a
+ * reader that keeps colliding with writes ends up waiting for the read lock.
+ */
+abstract class RecordStore {
+    
+    static final int RECORDS_PER_REGION = 1 << 16;
+    
+    private static final int[] FIELD_OFFSETS = new int[DatabaseRecord.getNumberOfFields()];
+    
+    static {
+        for (short f = 0; f < FIELD_OFFSETS.length; f++) {
+            FIELD_OFFSETS[f] = DatabaseRecord.getFieldOffset(f);
+        }
+    }
+    
+    private static final int STRIPES = 64;
+    // Optimistic reads of a record tried before waiting for the writers of its stripe
+    private static final int OPTIMISTIC_READS = 3;
+    
+    private final StampedLock[] stripes = new StampedLock[STRIPES];
+    
+    // Replaced as a whole when the store grows, so readers always see a consistent array
+    protected volatile ByteBuffer[] regions = new ByteBuffer[0];
+    protected volatile int recordCount = 0;
+    
+    protected RecordStore() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new StampedLock();
+        }
+    }
+    
+    private StampedLock getStripe(int slot) {
+        return stripes[slot & (STRIPES - 1)];
+    }
+    
+    /**
+     * Reads a record without locking; may be called several times for the same read.
+     */
+    private interface RecordReader<T> {
+        T read();
+    }
+    
+    /**
+     * Runs the given reader until it reads the record in the given slot while no write to its stripe happens.
+     * The result of a read overlapping a write is discarded, so the reader must not fail on inconsistent bytes.
+     */
+    private <T> T readConsistent(int slot, RecordReader<T> reader) {
+        StampedLock lock = getStripe(slot);
+        for (int i = 0; i < OPTIMISTIC_READS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                T result = reader.read();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return reader.read();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Returns the position of the given slot in the database file.
+     */
+    static long getRecordOffset(int slot) {
+        return DatabaseRecord.getSchemaSize() + (long)slot * DatabaseRecord.getRecordSlotSize();
+    }
+    
+    int getRecordCount() {
+        return recordCount;
+    }
+    
+    /**
+     * Returns a buffer positioned on the deletion flag of the record in the given slot
+     * and limited to the end of the record.
+     *
+     * @param slot The position of the record in the database file.
+     * @return A buffer private to the caller.
+     * @throws RecordNotFoundException When the slot is outside the database file.
+     */
+    ByteBuffer getRecordBuffer(int slot) throws RecordNotFoundException {
+        if (slot < 0 || slot >= recordCount) {
+            throw new RecordNotFoundException("No record in slot " + slot);
+        }
+        ByteBuffer bb = regions[slot / RECORDS_PER_REGION].duplicate();
+        int offset = (slot % RECORDS_PER_REGION) * DatabaseRecord.getRecordSlotSize();
+        bb.limit(offset + DatabaseRecord.getRecordSlotSize());
+        bb.position(offset);
+        return bb;
+    }
+    
+    boolean isRecordDeleted(int slot) {
+        int offset = (slot % RECORDS_PER_REGION) * DatabaseRecord.getRecordSlotSize();
+        return regions[slot / RECORDS_PER_REGION].get(offset) == (byte)0xFF;
+    }
+
+    /**
+     * Decodes the values of the record in the given slot.
+     *
+     * @throws RecordNotFoundException When the slot is outside the file or the record is deleted.
+     */
+    String[] readRecordValues(int slot) throws RecordNotFoundException {
+        final ByteBuffer bb = getRecordBuffer(slot);
+        final int start = bb.position();
+        String[] values = readConsistent(slot, new RecordReader<String[]>() {
+            @Override
+            public String[] read() {
+                bb.position(start);
+                return DatabaseRecord.readRecordValues(bb);
+            }
+        });
+        if (values == null) {
+            throw new RecordNotFoundException("Record in slot " + slot + " is deleted");
+        }
+        return values;
+    }
+    
+    /**
+     * Decodes the value of a single field of the record in the given slot.
+     */
+    String readFieldValue(int slot, final short field) throws RecordNotFoundException {
+        final ByteBuffer bb = getRecordBuffer(slot);
+        final int start = bb.position() + FIELD_OFFSETS[field];
+        return readConsistent(slot, new RecordReader<String>() {
+            @Override
+            public String read() {
+                bb.position(start);
+                return DatabaseRecord.getFieldDefinition(field).readFieldValue(bb);
+            }
+        });
+    }
+
+    /**
+     * Decodes the value of a single field without duplicating the region or taking the lock of the record.
+     * Meant for building the indexes, which reads one field of every record.
+     * 
+     * @param buffer A buffer of the caller, at least as long as the field, reused between calls.
+     */
+    String readFieldValueUnlocked(int slot, short field, byte[] buffer) {
+        ByteBuffer region = regions[slot / RECORDS_PER_REGION];
+        int offset = (slot % RECORDS_PER_REGION) * DatabaseRecord.getRecordSlotSize() + FIELD_OFFSETS[field];
+        DatabaseFieldDefinition definition = DatabaseRecord.getFieldDefinition(field);
+        int length = definition.getFieldLength();
+        for (int i = 0; i < length; i++) {
+            buffer[i] = region.get(offset + i);
+        }
+        return definition.fitValue(new String(buffer, 0, length));
+    }
+
+    /**
+     * Reads the record in the given slot into a new DatabaseRecord, e.g. to change it.
+     */
+    DatabaseRecord readRecord(int slot) throws RecordNotFoundException {
+        final DatabaseRecord dr = new DatabaseRecord();
+        final ByteBuffer bb = getRecordBuffer(slot);
+        final int start = bb.position();
+        readConsistent(slot, new RecordReader<Void>() {
+            @Override
+            public Void read() {
+                bb.position(start);
+                dr.read(bb);
+                return null;
+            }
+        });
+        dr.setSlot(slot);
+        return dr;
+    }
+
+    /**
+     * Writes the given record into the slice of the given slot.
+     */
+    void writeRecord(int slot, DatabaseRecord dr) throws RecordNotFoundException {
+        ByteBuffer bb = getRecordBuffer(slot);
+        StampedLock lock = getStripe(slot);
+        long stamp = lock.writeLock();
+        try {
+            dr.write(bb);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Copies the bytes of the record in the given slot to the given buffer, e.g. to write them to the file.
+     */
+    void copyRecord(int slot, final ByteBuffer target) throws RecordNotFoundException {
+        final ByteBuffer bb = getRecordBuffer(slot);
+        final int start = bb.position();
+        final int targetStart = target.position();
+        readConsistent(slot, new RecordReader<Void>() {
+            @Override
+            public Void read() {
+                bb.position(start);
+                target.position(targetStart);
+                target.put(bb);
+                return null;
+            }
+        });
+    }
+    
+    /**
+     * Converts search criteria to the bytes they would have in the database file
+     * (the low eight bits of each character, as they are written).
+     * 
+     * @return One array of bytes per field, null for the fields without criterion.
+     */
+    static byte[][] encodeCriteria(String[] criteria) {
+        byte[][] prefixes = new byte[DatabaseRecord.getNumberOfFields()][];
+        for (int f = 0; criteria != null && f < criteria.length && f < prefixes.length; f++) {
+            if (criteria[f] != null) {
+                prefixes[f] = new byte[criteria[f].length()];
+                for (int i = 0; i < prefixes[f].length; i++) {
+                    prefixes[f][i] = (byte)criteria[f].charAt(i);
+                }
+            }
+        }
+        return prefixes;
+    }
+    
+    /**
+     * Checks the record in the given slot against the given prefixes, comparing them directly
+     * with the bytes of the fields; nothing is decoded or copied. Like the other reads, the check
+     * is made against the record as it is between two writes, never against a half written one.
+     * 
+     * @param prefixes The criteria as returned by encodeCriteria().
+     * @return True if the record is not deleted and each field starts with the corresponding prefix.
+     */
+    boolean matches(int slot, byte[][] prefixes) {
+        // Written out instead of going through readConsistent(), as it runs for every record of a scan
+        StampedLock lock = getStripe(slot);
+        for (int i = 0; i < OPTIMISTIC_READS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                boolean matches = compare(slot, prefixes);
+                if (lock.validate(stamp)) {
+                    return matches;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return compare(slot, prefixes);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    private boolean compare(int slot, byte[][] prefixes) {
+        ByteBuffer region = regions[slot / RECORDS_PER_REGION];
+        int start = (slot % RECORDS_PER_REGION) * DatabaseRecord.getRecordSlotSize();
+        // Absolute gets do not move the position of the region, so no duplicate is needed
+        if (region.get(start) == (byte)0xFF) {
+            return false;
+        }
+        for (short f = 0; f < prefixes.length; f++) {
+            byte[] prefix = prefixes[f];
+            if (prefix == null) {
+                continue;
+            }
+            int fieldLength = DatabaseRecord.getFieldDefinition(f).getFieldLength();
+            if (prefix.length > fieldLength) {
+                return false;
+            }
+            int offset = start + FIELD_OFFSETS[f];
+            for (int i = 0; i < prefix.length; i++) {
+                if (region.get(offset + i) != prefix[i]) {
+                    return false;
+                }
+            }
+            // The values are compared trimmed, so a prefix ending with spaces
+            // does not match the padding at the end of the field
+            if (prefix.length > 0 && prefix[prefix.length - 1] == ' ') {
+                boolean more = false;
+                for (int i = prefix.length; i < fieldLength && !more; i++) {
+                    more = region.get(offset + i) != ' ';
+                }
+                if (!more) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Adds slots at the end of the store, holding deleted records, so that they can be used for new records.
+     * The slots are ready when the new record count becomes visible.
+     * 
+     * @param minCount The number of records the store must be able to hold at least.
+     * @return The new number of records, which may be higher than asked for.
+     */
+    abstract int grow(int minCount) throws DatabaseRuntimeException;
+    
+    /**
+     * Fills the given range of a region with deleted records.
+     */
+    static void fillDeleted(ByteBuffer region, int from, int to) {
+        for (int offset = from; offset < to; offset += DatabaseRecord.getRecordSlotSize()) {
+            region.put(offset, (byte)0xFF);
+            for (int i = 1; i < DatabaseRecord.getRecordSlotSize(); i++) {
+                region.put(offset + i, (byte)' ');
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of regions needed for the given number of records.
+     */
+    static int getRegionCount(int records) {
+        return (records + RECORDS_PER_REGION - 1) / RECORDS_PER_REGION;
+    }
+    
+    /**
+     * Releases the resources held by the store.
+     */
+    abstract void close() throws DatabaseRuntimeException;
+}
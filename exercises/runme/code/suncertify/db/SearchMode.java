@@ -0,0 +1,20 @@
+package suncertify.db;
+
+/**
+ * The ways find() can look for the records matching the criteria.
+ */
+public enum SearchMode {
+    /**
+     * Use the indexes on the field values; when no criterion can be looked up in the indexes,
+     * fall back to a parallel scan of all records.
+     */
+    INDEXED,
+    /**
+     * Check every record, one after the other, in the calling thread.
+     */
+    SEQUENTIAL_SCAN,
+    /**
+     * Check every record, splitting the records in ranges checked in parallel.
+     */
+    PARALLEL_SCAN
+}
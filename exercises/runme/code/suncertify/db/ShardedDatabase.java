@@ -0,0 +1,210 @@
+package suncertify.db;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A database spread over several database files (shards), each open as a Data instance of its own,
+ * so that writes to different shards go through different caches, logs and synchronizers.
+ *
+ * A new record is created in the shard chosen by the hash of the values of the shard key fields,
+ * and stays there: an update that changes these values does not move it.
+ * The shard of a record is encoded in its record number: the record number of the shard is
+ * multiplied by the number of shards and the shard index added, so routing read, update, delete,
+ * lock and unlock is an arithmetic operation. find() asks all shards in parallel and merges
+ * their results.
+ */
+public class ShardedDatabase implements DB {
+
+    private final Data[] shards;
+    private final short[] shardKeyFields;
+
+    /**
+     * Opens the shards.
+     *
+     * @param dbPaths The paths of the database files, one per shard. Their order must stay the same
+     * from one session to the next, since it is part of the record numbers.
+     * @param storageMode Where the records of each shard are kept while the database is open.
+     * @param flushSettings Settings of the synchronizer of each shard.
+     * @param shardKeyFieldNames The names of the fields whose values choose the shard of a new record.
+     * @throws DatabaseRuntimeException When one of the files cannot be opened; the shards opened so far are closed.
+     */
+    public ShardedDatabase(String[] dbPaths, Data.StorageMode storageMode, FlushSettings flushSettings,
+            String... shardKeyFieldNames) throws DatabaseRuntimeException {
+        if (dbPaths.length == 0) {
+            throw new IllegalArgumentException("No database file for the shards.");
+        }
+        if (shardKeyFieldNames.length == 0) {
+            throw new IllegalArgumentException("No shard key field.");
+        }
+        shardKeyFields = new short[shardKeyFieldNames.length];
+        for (int i = 0; i < shardKeyFieldNames.length; i++) {
+            shardKeyFields[i] = DatabaseRecord.getFieldIndex(shardKeyFieldNames[i]);
+            if (shardKeyFields[i] < 0) {
+                throw new IllegalArgumentException("No field named " + shardKeyFieldNames[i]);
+            }
+        }
+
+        shards = new Data[dbPaths.length];
+        try {
+            for (int i = 0; i < dbPaths.length; i++) {
+                shards[i] = Data.open(dbPaths[i], storageMode, flushSettings);
+                for (int j = 0; j < i; j++) {
+                    if (shards[j] == shards[i]) {
+                        throw new DatabaseRuntimeException("The database " + dbPaths[i] + " is given for two shards.");
+                    }
+                }
+            }
+        } catch (DatabaseRuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the shard in which a record with the given values is created.
+     * The values are fitted the way they are stored, so that the same record always hashes the same.
+     */
+    int getShard(String[] values) {
+        int hash = 0;
+        for (short f : shardKeyFields) {
+            String value = (values != null && f < values.length) ? values[f] : null;
+            value = DatabaseRecord.getFieldDefinition(f).fitValue(value);
+            hash = 31 * hash + ((value == null) ? 0 : value.hashCode());
+        }
+        // Spreads the high bits, like HashMap does, before taking the remainder
+        hash ^= (hash >>> 16);
+        return (hash & 0x7FFFFFFF) % shards.length;
+    }
+
+    private int toRecordNumber(int shard, int shardRecNo) {
+        long recNo = (long)shardRecNo * shards.length + shard;
+        if (recNo > Integer.MAX_VALUE) {
+            throw new DatabaseRuntimeException("Record number " + shardRecNo + " of shard " + shard
+                    + " is out of range.");
+        }
+        return (int)recNo;
+    }
+
+    private Data getShardOf(int recNo) throws RecordNotFoundException {
+        if (recNo < 0) {
+            throw new RecordNotFoundException("No record with number " + recNo);
+        }
+        return shards[recNo % shards.length];
+    }
+
+    private int getShardRecordNumber(int recNo) {
+        return recNo / shards.length;
+    }
+
+    @Override
+    public String[] read(int recNo) throws RecordNotFoundException {
+        return getShardOf(recNo).read(getShardRecordNumber(recNo));
+    }
+
+    @Override
+    public void update(int recNo, String[] data, long lockCookie)
+            throws RecordNotFoundException, SecurityException {
+        getShardOf(recNo).update(getShardRecordNumber(recNo), data, lockCookie);
+    }
+
+    @Override
+    public void delete(int recNo, long lockCookie)
+            throws RecordNotFoundException, SecurityException {
+        getShardOf(recNo).delete(getShardRecordNumber(recNo), lockCookie);
+    }
+
+    // The criteria are matched by all shards in parallel; the record numbers are returned in ascending order.
+    @Override
+    public int[] find(final String[] criteria) {
+        List<ForkJoinTask<int[]>> tasks = new ArrayList<ForkJoinTask<int[]>>(shards.length);
+        for (final Data shard : shards) {
+            tasks.add(ForkJoinPool.commonPool().submit(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    return shard.find(criteria);
+                }
+            }));
+        }
+        int[][] found = new int[shards.length][];
+        int count = 0;
+        for (int i = 0; i < shards.length; i++) {
+            found[i] = tasks.get(i).join();
+            count += found[i].length;
+        }
+        int[] recNos = new int[count];
+        int n = 0;
+        for (int i = 0; i < shards.length; i++) {
+            for (int shardRecNo : found[i]) {
+                recNos[n++] = toRecordNumber(i, shardRecNo);
+            }
+        }
+        Arrays.sort(recNos);
+        return recNos;
+    }
+
+    @Override
+    public int create(String[] data) throws DuplicateKeyException {
+        int shard = getShard(data);
+        return toRecordNumber(shard, shards[shard].create(data));
+    }
+
+    @Override
+    public long lock(int recNo) throws RecordNotFoundException {
+        return getShardOf(recNo).lock(getShardRecordNumber(recNo));
+    }
+
+    @Override
+    public void unlock(int recNo, long cookie)
+            throws RecordNotFoundException, SecurityException {
+        getShardOf(recNo).unlock(getShardRecordNumber(recNo), cookie);
+    }
+
+    /**
+     * Sets the unique key of every shard. The key is only unique across the shards if it includes
+     * the shard key fields, since records with the same key are then always created in the same shard.
+     *
+     * @see Data#setUniqueKey(String...)
+     */
+    public void setUniqueKey(String... fieldNames) throws DuplicateKeyException {
+        for (Data shard : shards) {
+            shard.setUniqueKey(fieldNames);
+        }
+    }
+
+    public int getRecordCount() {
+        int count = 0;
+        for (Data shard : shards) {
+            count += shard.getRecordCount();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the pending changes of all shards to their database files and closes them.
+     */
+    public void close() throws DatabaseRuntimeException {
+        DatabaseRuntimeException failure = null;
+        for (Data shard : shards) {
+            if (shard == null) {
+                continue;
+            }
+            try {
+                shard.close();
+            } catch (DatabaseRuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package suncertify.db;
+
+import java.util.*;
+
+/**
+ * Hash index on the values of a set of fields that no two records may share (a unique key).
+ *
+ * The key of a record is made of the values of the key fields, trimmed as they are stored.
+ * Checking whether a key is taken, taking it and giving it up are single hash map operations,
+ * so enforcing the key costs the same whatever the number of records.
+ */
+class UniqueKeyIndex {
+
+    private final short[] keyFields;
+    private final Map<String, Integer> recordsByKey = new HashMap<String, Integer>();
+
+    /**
+     * @param keyFields The positions of the key fields in the schema.
+     */
+    UniqueKeyIndex(short[] keyFields) {
+        this.keyFields = keyFields.clone();
+    }
+
+    short[] getKeyFields() {
+        return keyFields.clone();
+    }
+
+    /**
+     * Returns the key of a record with the given values.
+     * The values are separated by a character that cannot be stored in the file.
+     */
+    String getKey(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (short f : keyFields) {
+            String value = (values != null && f < values.length) ? values[f] : null;
+            sb.append((value == null) ? "" : value).append('\uFFFF');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gives the key of the given values to a record, unless another record has it already.
+     *
+     * @return True if the key was free or already belonged to the record.
+     */
+    synchronized boolean add(int recNo, String[] values) {
+        String key = getKey(values);
+        Integer owner = recordsByKey.get(key);
+        if (owner != null && owner != recNo) {
+            return false;
+        }
+        recordsByKey.put(key, recNo);
+        return true;
+    }
+
+    /**
+     * Releases the key of the given values, if it belongs to the record.
+     */
+    synchronized void remove(int recNo, String[] values) {
+        String key = getKey(values);
+        Integer owner = recordsByKey.get(key);
+        if (owner != null && owner == recNo) {
+            recordsByKey.remove(key);
+        }
+    }
+
+    /**
+     * Moves a record from the key of its old values to the key of its new values,
+     * unless another record has the new key.
+     *
+     * @return True if the record has the key of its new values.
+     */
+    synchronized boolean update(int recNo, String[] oldValues, String[] newValues) {
+        String oldKey = getKey(oldValues);
+        String newKey = getKey(newValues);
+        if (oldKey.equals(newKey)) {
+            return true;
+        }
+        if (!add(recNo, newValues)) {
+            return false;
+        }
+        remove(recNo, oldValues);
+        return true;
+    }
+
+    /**
+     * Returns the number of the record with the key of the given values, or -1 if there is none.
+     */
+    synchronized int find(String[] values) {
+        Integer owner = recordsByKey.get(getKey(values));
+        return (owner == null) ? -1 : owner;
+    }
+}
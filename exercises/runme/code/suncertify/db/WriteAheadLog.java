@@ -0,0 +1,319 @@
+package suncertify.db;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Sequential log of the changes made to the records of a database file.
+ *
+ * Every change is appended to the log as the complete image of the changed record (deletion flag
+ * and values) together with the slot it belongs in. A change is durable as soon as its log entry is
+ * on disk; the record file itself is brought up to date later by a checkpoint. Since the entries are
+ * complete record images, applying an entry more than once has no effect, which keeps both the
+ * checkpoint and the recovery simple.
+ *
+ * Group commit:
+ * Appending only writes the entry to the log file. A writer then waits in sync() until its entry
+ * is forced to disk. The first waiter forces the log on behalf of everybody who appended until then,
+ * while writers that append in the meantime wait for the next force. Under concurrency many updates
+ * thus share the cost of a single synchronous disk write.
+ * Should the force fail, its leader gets the exception and each of the other waiters forces
+ * the log again, so none of them returns before its entry is on disk.
+ *
+ * Segments:
+ * The log is made of numbered segment files next to the database file (dbPath.wal.N). A checkpoint
+ * rotates to a new segment before writing the dirty records to the database file; once the
+ * database file is forced to disk, the older segments are no longer needed and are deleted.
+ *
+ * Entry layout: slot (int), CRC32 of the image (int), record image (flag and values).
+ */
+class WriteAheadLog {
+
+    private static final String SEGMENT_SUFFIX = ".wal.";
+    private static final int ENTRY_HEADER_SIZE = 4 + 4;
+
+    private final String dbPath;
+    private long segmentNumber;
+    // Accessed through RandomAccessFile rather than a FileChannel, because a channel is closed
+    // for everybody when a thread using it is interrupted
+    private RandomAccessFile segment;
+
+    // Log sequence numbers: the last appended entry and the last entry known to be on disk
+    private long appendedLsn = 0;
+    private long durableLsn = 0;
+    private boolean forcing = false;
+    private boolean closed = false;
+
+    /**
+     * Opens a new log for the given database file.
+     * Recovery must have been done beforehand, so there are no segments left from a previous session.
+     */
+    WriteAheadLog(String dbPath) throws DatabaseRuntimeException {
+        this.dbPath = dbPath;
+        this.segmentNumber = 0;
+        openSegment();
+    }
+
+    static int getEntrySize() {
+        return ENTRY_HEADER_SIZE + DatabaseRecord.getRecordSlotSize();
+    }
+
+    private String getSegmentPath(long number) {
+        return dbPath + SEGMENT_SUFFIX + number;
+    }
+
+    private void openSegment() throws DatabaseRuntimeException {
+        try {
+            segment = new RandomAccessFile(getSegmentPath(segmentNumber), "rw");
+            segment.setLength(0);
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while opening log segment " + getSegmentPath(segmentNumber));
+        }
+    }
+
+    /**
+     * Appends the image of a record to the log.
+     *
+     * @param slot The position of the record in the database file.
+     * @param dr The record, whose current flag and values are logged.
+     * @return The log sequence number of the entry, to be passed to sync().
+     */
+    long append(int slot, DatabaseRecord dr) throws DatabaseRuntimeException {
+        ByteBuffer entry = ByteBuffer.allocate(getEntrySize());
+        entry.position(ENTRY_HEADER_SIZE);
+        dr.encode(entry);
+        CRC32 crc = new CRC32();
+        crc.update(entry.array(), ENTRY_HEADER_SIZE, DatabaseRecord.getRecordSlotSize());
+        entry.putInt(0, slot);
+        entry.putInt(4, (int)crc.getValue());
+
+        synchronized (this) {
+            if (closed) {
+                throw new DatabaseRuntimeException("The log is closed.");
+            }
+            try {
+                segment.write(entry.array());
+            } catch (IOException e) {
+                throw new DatabaseRuntimeException("IOException while appending to the log.");
+            }
+            return ++appendedLsn;
+        }
+    }
+
+    /**
+     * Blocks until the entry with the given log sequence number is on disk.
+     * One of the waiting threads forces the log for all entries appended so far (group commit).
+     */
+    void sync(long lsn) throws DatabaseRuntimeException {
+        long target;
+        RandomAccessFile toForce;
+        synchronized (this) {
+            while (durableLsn < lsn) {
+                if (!forcing) {
+                    break;
+                }
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    // Keep waiting; returning before the entry is durable would break the contract of sync()
+                }
+            }
+            if (durableLsn >= lsn) {
+                return;
+            }
+            // Become the leader of this group
+            forcing = true;
+            target = appendedLsn;
+            toForce = segment;
+        }
+
+        boolean synced = false;
+        try {
+            toForce.getFD().sync();
+            synced = true;
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while forcing the log to disk.");
+        } finally {
+            synchronized (this) {
+                forcing = false;
+                // When the force failed, the entries of the group are not durable: the threads
+                // waiting for them find no force going on and force the log again themselves
+                if (synced && target > durableLsn) {
+                    durableLsn = target;
+                }
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment. Entries appended from now on go to the new segment.
+     * The entries in the older segments remain until deleteObsoleteSegments() is called.
+     */
+    synchronized void rotate() throws DatabaseRuntimeException {
+        while (forcing) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                // Keep waiting for the current group to finish
+            }
+        }
+        try {
+            // Everything appended to the old segment becomes durable before leaving it
+            segment.getFD().sync();
+            durableLsn = appendedLsn;
+            segment.close();
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while rotating the log.");
+        }
+        this.notifyAll();
+        segmentNumber++;
+        openSegment();
+    }
+
+    /**
+     * Deletes all segments before the current one.
+     * Must only be called when the changes they contain have been written and forced to the database file.
+     */
+    synchronized void deleteObsoleteSegments() {
+        for (long n = segmentNumber - 1; n >= 0; n--) {
+            File f = new File(getSegmentPath(n));
+            if (!f.exists()) {
+                break;
+            }
+            f.delete();
+        }
+    }
+
+    /**
+     * Returns true if entries were appended to the current segment.
+     */
+    synchronized boolean hasEntries() {
+        try {
+            return segment.length() > 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Closes the log and deletes all segments, unless told to keep them.
+     * Segments may only be deleted when all changes have been written and forced to the database file;
+     * kept segments are applied by the recovery when the database is opened again.
+     */
+    synchronized void close(boolean keepSegments) throws DatabaseRuntimeException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            segment.close();
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while closing the log.");
+        }
+        if (!keepSegments) {
+            segmentNumber++;
+            deleteObsoleteSegments();
+        }
+    }
+
+    /**
+     * Applies the log segments left by a previous session to the database file, then deletes them.
+     * Entries are applied in the order they were appended. A torn entry at the end of a segment
+     * (e.g. because of a crash while appending) is ignored, as its writer never got a confirmation.
+     *
+     * @param dbPath The path of the database file.
+     * @return The number of entries applied.
+     */
+    static int recover(String dbPath) throws DatabaseRuntimeException {
+        List<File> segments = new ArrayList<File>();
+        // A checkpoint of the previous session may have deleted the first segments
+        for (long n = findFirstSegment(dbPath); ; n++) {
+            File f = new File(dbPath + SEGMENT_SUFFIX + n);
+            if (!f.exists()) {
+                break;
+            }
+            segments.add(f);
+        }
+        if (segments.isEmpty()) {
+            return 0;
+        }
+
+        int applied = 0;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(dbPath, "rw");
+            try {
+                FileChannel db = raf.getChannel();
+                ByteBuffer entry = ByteBuffer.allocate(getEntrySize());
+                CRC32 crc = new CRC32();
+                for (File f : segments) {
+                    FileChannel log = new FileInputStream(f).getChannel();
+                    try {
+                        long position = 0;
+                        while (position + getEntrySize() <= log.size()) {
+                            entry.clear();
+                            while (entry.hasRemaining()) {
+                                log.read(entry, position + entry.position());
+                            }
+                            int slot = entry.getInt(0);
+                            crc.reset();
+                            crc.update(entry.array(), ENTRY_HEADER_SIZE, DatabaseRecord.getRecordSlotSize());
+                            if (slot < 0 || entry.getInt(4) != (int)crc.getValue()) {
+                                break;
+                            }
+                            entry.position(ENTRY_HEADER_SIZE);
+                            long offset = RecordStore.getRecordOffset(slot);
+                            while (entry.hasRemaining()) {
+                                db.write(entry, offset + entry.position() - ENTRY_HEADER_SIZE);
+                            }
+                            position += getEntrySize();
+                            applied++;
+                        }
+                    } finally {
+                        log.close();
+                    }
+                }
+                db.force(true);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new DatabaseRuntimeException("IOException while recovering the database from the log.");
+        }
+
+        for (File f : segments) {
+            f.delete();
+        }
+        return applied;
+    }
+
+    /**
+     * Returns the lowest segment number present for the given database file, or 0 if there is none.
+     */
+    private static long findFirstSegment(String dbPath) {
+        File dbFile = new File(dbPath).getAbsoluteFile();
+        String prefix = dbFile.getName() + SEGMENT_SUFFIX;
+        String[] names = dbFile.getParentFile().list();
+        long first = 0;
+        boolean found = false;
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix)) {
+                    try {
+                        long n = Long.parseLong(name.substring(prefix.length()));
+                        if (!found || n < first) {
+                            first = n;
+                            found = true;
+                        }
+                    } catch (NumberFormatException e) {
+                        // Not a log segment
+                    }
+                }
+            }
+        }
+        return first;
+    }
+}
@@ -1,17 +1,33 @@
 package suncertify.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out consecutive numbers. Safe to use from several threads at once:
+ * the counter is incremented atomically, without locking, and no number is handed out twice.
+ */
 public class AutoIncrementNumberGenerator {
-    private long generator = 0;
+    private final AtomicLong generator;
     
     public AutoIncrementNumberGenerator() {
-        generator = 0;
+        generator = new AtomicLong(0);
     }
 
     AutoIncrementNumberGenerator(int start) {
-        generator = start;
+        generator = new AtomicLong(start);
     }
 
     public long newNumber() {
-        return generator++;
+        return generator.getAndIncrement();
+    }
+    
+    /**
+     * Reserves a block of consecutive numbers at once.
+     * 
+     * @param size The number of numbers to reserve.
+     * @return The first number of the block; the block ends before first + size.
+     */
+    public long newBlock(int size) {
+        return generator.getAndAdd(size);
     }
 }
@@ -0,0 +1,65 @@
+package suncertify.util;
+
+import java.util.Arrays;
+
+/**
+ * Allocates positions (e.g. the slots of the records in a database file), reusing the released ones first.
+ * 
+ * Released positions are kept on a stack of primitive ints, so allocating and releasing are O(1)
+ * whatever the number of free positions. When there is no free position, the allocator extends
+ * the used range by one position at its end.
+ */
+public class FreeListAllocator {
+    private int[] free = new int[16];
+    private int freeCount = 0;
+    private int end;
+    
+    /**
+     * @param end The first position after the positions that are already in use.
+     */
+    public FreeListAllocator(int end) {
+        this.end = end;
+    }
+    
+    /**
+     * Returns a free position, reusing a released one if there is any.
+     */
+    public synchronized int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        return end++;
+    }
+    
+    /**
+     * Makes a position available for reuse.
+     */
+    public synchronized void release(int position) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = position;
+    }
+    
+    /**
+     * Extends the range to the given end and makes the positions added to it available,
+     * the lowest ones being allocated first.
+     */
+    public synchronized void extend(int newEnd) {
+        for (int position = newEnd - 1; position >= end; position--) {
+            release(position);
+        }
+        end = Math.max(end, newEnd);
+    }
+    
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+    
+    /**
+     * Returns the first position after the range used so far.
+     */
+    public synchronized int getEnd() {
+        return end;
+    }
+}
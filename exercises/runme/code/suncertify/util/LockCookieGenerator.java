@@ -0,0 +1,72 @@
+package suncertify.util;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Hands out lock cookies that are unique and cannot be guessed from the cookies seen before.
+ * 
+ * Each thread takes a block of sequence numbers from a shared counter and then uses it on its own,
+ * so the threads only touch the shared counter once per block instead of once per cookie.
+ * A cookie is the first 64 bits of the HMAC-SHA256 of the sequence number, keyed with a random secret
+ * chosen when the generator is created. Without the secret, the cookies seen by a client tell nothing
+ * about the other cookies. Distinct sequence numbers give the same cookie with a probability of 2^-64,
+ * which is as good as unique for cookies that are only ever compared with the cookie of the same record.
+ * 
+ * Cookies are never -1, which is used to report a failed attempt to lock a record.
+ */
+public class LockCookieGenerator {
+    private static final int BLOCK_SIZE = 1024;
+    private static final String ALGORITHM = "HmacSHA256";
+    
+    private final AutoIncrementNumberGenerator sequence = new AutoIncrementNumberGenerator();
+    private final SecretKeySpec secret;
+    
+    // Next number and end of the block of the calling thread
+    private final ThreadLocal<long[]> blocks = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { 0, 0 };
+        }
+    };
+    
+    // A Mac cannot be shared by threads
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(secret);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                // Every Java platform has HmacSHA256
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        }
+    };
+    
+    public LockCookieGenerator() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        secret = new SecretKeySpec(key, ALGORITHM);
+    }
+    
+    public long newCookie() {
+        long[] block = blocks.get();
+        Mac mac = macs.get();
+        while (true) {
+            if (block[0] == block[1]) {
+                block[0] = sequence.newBlock(BLOCK_SIZE);
+                block[1] = block[0] + BLOCK_SIZE;
+            }
+            byte[] digest = mac.doFinal(ByteBuffer.allocate(8).putLong(block[0]++).array());
+            long cookie = ByteBuffer.wrap(digest).getLong();
+            if (cookie != -1) {
+                return cookie;
+            }
+        }
+    }
+}
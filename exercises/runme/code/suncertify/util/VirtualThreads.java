@@ -0,0 +1,54 @@
+package suncertify.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/**
+ * Starts a virtual thread per task, when the Java runtime has virtual threads (Java 21 and later).
+ *
+ * A virtual thread that waits, e.g. for a record lock, is unmounted from its carrier thread and only
+ * costs its stack on the heap, so thousands of them can wait at once. The code is compiled for
+ * runtimes without virtual threads, so they are created through reflection. There is no fallback
+ * to a platform thread per task: as many platform threads as waiting tasks is what a pool avoids,
+ * so callers check isAvailable() and use a pool of their own otherwise.
+ */
+public class VirtualThreads {
+
+    // Executors.newVirtualThreadPerTaskExecutor(); null when the runtime cannot create virtual threads
+    private static final Method NEW_EXECUTOR = findNewExecutor();
+
+    private static Method findNewExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            // Fails when virtual threads are a preview feature that is not enabled
+            ((ExecutorService)m.invoke(null)).shutdown();
+            return m;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the runtime can create virtual threads.
+     */
+    public static boolean isAvailable() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for each task.
+     *
+     * @throws UnsupportedOperationException When the runtime cannot create virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads are not available in this Java runtime.");
+        }
+        try {
+            return (ExecutorService)NEW_EXECUTOR.invoke(null);
+        } catch (Exception e) {
+            // Worked when looked up
+            throw new UnsupportedOperationException("Virtual threads cannot be created: " + e);
+        }
+    }
+}